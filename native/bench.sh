@@ -0,0 +1,12 @@
+#!/bin/sh
+# Compares start up of the native and the JVM chunker on a document:
+# time to the first NP, time to exit and peak RSS, median of N runs.
+#
+#   native/bench.sh document [runs]
+set -e
+cd "$(dirname "$0")/.."
+
+java -cp build/classes chunker.LaunchBench --runs "${2:-20}" "$1" \
+	build/chunk -- \
+	java -cp build/classes chunker.Main -- \
+	java -XX:TieredStopAtLevel=1 -Xshare:auto -cp build/classes chunker.Main
@@ -0,0 +1,26 @@
+#!/bin/sh
+# Builds the command line chunker as a native executable, build/chunk.
+# Needs GraalVM's native-image on the PATH.
+#
+#   native/build.sh
+set -e
+cd "$(dirname "$0")/.."
+
+if ! command -v native-image > /dev/null
+then
+	echo "native/build.sh: native-image isn't on the PATH, install GraalVM" >&2
+	exit 1
+fi
+
+rm -rf build/classes
+mkdir -p build/classes
+
+javac -encoding UTF-8 -d build/classes $(find src -name '*.java')
+cp -r src/META-INF build/classes/
+
+native-image -cp build/classes -o build/chunk chunker.Main
+
+# The native chunker must give the same NPs as the JVM one
+java -cp build/classes chunker.Main --sample > build/sample.jvm
+build/chunk --sample > build/sample.native
+cmp build/sample.jvm build/sample.native
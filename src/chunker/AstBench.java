@@ -0,0 +1,266 @@
+package chunker;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Compares building parse trees with the typed AST nodes of Chunk against
+ * the raw List/Object trees of the original callFunc(), which is kept in
+ * ReferenceChunk.
+ *
+ * Only the reductions are timed. Every segment of the input is parsed once
+ * with CykParser to get a derivation, i.e. the rules in preorder, and the
+ * derivations are then replayed both through TreeBuilder.derive() and,
+ * rule by rule in the same order, through the reference's callFunc(), with
+ * the values of each rule's symbols in a new list as the reference's
+ * buildTree_r() passes them. Segments either one can't build are left out.
+ * The reference is private and frozen, so it is called through a method
+ * handle, which costs its side a few nanoseconds per reduction.
+ *
+ * For each run it prints the time and the bytes allocated per reduction,
+ * the median of the runs is the one to compare.
+ *
+ *   AstBench [--runs N] file...
+ */
+public class AstBench
+{
+	private Chunk chunk = new Chunk();
+	private ReferenceChunk reference = new ReferenceChunk();
+
+	private List<Chunk.Segment> segments = new ArrayList<Chunk.Segment>();
+	private List<int[]> derivations = new ArrayList<int[]>();
+	// The reference's tokens of each segment
+	private List<Object[]> tokens = new ArrayList<Object[]>();
+	private long reductions = 0;
+
+	// The reference's function of each rule, and which of its symbols are
+	// nonterminals, by rule id
+	private Object[] functions = null;
+	private boolean[][] nonterminal = null;
+	private Object sentFunction = null;
+
+	private Object referenceTb = null;
+	private MethodHandle callFunc = null;
+
+	public static void main(String[] args) throws Throwable
+	{
+		int runs = 5;
+		AstBench bench = new AstBench();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--runs"))
+			{
+				runs = Integer.parseInt(args[++i]);
+				continue;
+			}
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					new FileInputStream(args[i]), "UTF-8"));
+			String line;
+
+			while((line = br.readLine()) != null)
+				bench.add(line);
+
+			br.close();
+		}
+
+		System.out.printf(Locale.ROOT, "%d segments, %d reductions%n%n", bench.segments.size(),
+				bench.reductions);
+		System.out.printf(Locale.ROOT, "%-4s %10s %10s %12s %12s%n", "run", "list ms", "typed ms",
+				"list B/red", "typed B/red");
+
+		long[] listTimes = new long[runs], typedTimes = new long[runs];
+
+		for(int r = 0; r < runs; r++)
+		{
+			long[] list = bench.time(false), typed = bench.time(true);
+			listTimes[r] = list[0];
+			typedTimes[r] = typed[0];
+
+			System.out.printf(Locale.ROOT, "%-4d %10.1f %10.1f %12.1f %12.1f%n", r + 1,
+					list[0] / 1e6, typed[0] / 1e6, (double)list[1] / bench.reductions,
+					(double)typed[1] / bench.reductions);
+		}
+
+		Arrays.sort(listTimes);
+		Arrays.sort(typedTimes);
+
+		System.out.printf(Locale.ROOT, "%nmedian: list %.1f ms, typed %.1f ms, %.2fx%n",
+				listTimes[runs / 2] / 1e6, typedTimes[runs / 2] / 1e6,
+				(double)listTimes[runs / 2] / typedTimes[runs / 2]);
+	}
+
+	public AstBench() throws Exception
+	{
+		Class<?> tbClass = Class.forName("chunker.ReferenceChunk$TreeBuilder");
+		Class<?> namesClass = Class.forName("chunker.ReferenceChunk$FunctionNames");
+
+		Method m = tbClass.getDeclaredMethod("callFunc", namesClass, List.class);
+		m.setAccessible(true);
+		callFunc = MethodHandles.lookup().unreflect(m);
+
+		java.lang.reflect.Field f = ReferenceChunk.class.getDeclaredField("tb");
+		f.setAccessible(true);
+		referenceTb = f.get(reference);
+
+		int count = chunk.ruleCount();
+		functions = new Object[count];
+		nonterminal = new boolean[count][];
+
+		for(int id = 0; id < count; id++)
+		{
+			// "LHS ::= RHS  (function)"
+			String text = chunk.ruleText(id);
+			String name = text.substring(text.lastIndexOf('(') + 1, text.length() - 1);
+			functions[id] = function(namesClass, name);
+
+			Chunk.TokenTypes[] rhs = chunk.ruleRhs(id);
+			nonterminal[id] = new boolean[rhs.length];
+			for(int k = 0; k < rhs.length; k++)
+				nonterminal[id][k] = chunk.isNonterminal(rhs[k]);
+		}
+
+		sentFunction = function(namesClass, "p_sent_0");
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Object function(Class<?> namesClass, String name)
+	{
+		return Enum.valueOf((Class<Enum>)namesClass, name);
+	}
+
+	/**
+	 * Adds the segments of a line that have a derivation both sides can
+	 * build
+	 */
+	private void add(String line) throws Throwable
+	{
+		Class<?> tokenClass = Class.forName("chunker.ReferenceChunk$Token");
+		Class<?> typesClass = Class.forName("chunker.ReferenceChunk$TokenTypes");
+		Constructor<?> newToken = tokenClass.getDeclaredConstructor(ReferenceChunk.class, typesClass);
+		newToken.setAccessible(true);
+
+		CykParser cyk = new CykParser(chunk);
+
+		for(Chunk.Segment segment : chunk.tokenizeLine(line))
+		{
+			int[] derivation = cyk.parse(segment.types());
+			if(derivation == null)
+				continue;
+
+			Object[] toks = new Object[segment.size()];
+			for(int i = 0; i < toks.length; i++)
+				toks[i] = newToken.newInstance(reference, function(typesClass, segment.type(i).name()));
+
+			try
+			{
+				chunk.derive(derivation, segment);
+				replay(derivation, toks);
+			}
+			catch(Throwable t)
+			{
+				// p_np_comp_210 fails on both sides, and drops the segment
+				continue;
+			}
+
+			segments.add(segment);
+			derivations.add(derivation);
+			tokens.add(toks);
+			reductions += derivation.length + 1;
+		}
+	}
+
+	/**
+	 * Builds all trees with one of the sides, returns the nanoseconds and
+	 * the bytes allocated
+	 */
+	private long[] time(boolean typed) throws Throwable
+	{
+		com.sun.management.ThreadMXBean mx =
+				(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+		long bytes = mx.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		int sink = 0;
+
+		for(int i = 0; i < segments.size(); i++)
+		{
+			Object tree = typed ? chunk.derive(derivations.get(i), segments.get(i)) :
+					replay(derivations.get(i), tokens.get(i));
+			sink += tree == null ? 0 : 1;
+		}
+
+		long nanos = System.nanoTime() - start;
+		bytes = mx.getCurrentThreadAllocatedBytes() - bytes;
+
+		if(sink != segments.size())
+			throw new IllegalStateException("Missing trees");
+
+		return new long[] {nanos, bytes};
+	}
+
+	/**
+	 * Builds the tree of a derivation with the reference's callFunc(), in
+	 * the same order as TreeBuilder.derive()
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private Object replay(int[] derivation, Object[] toks) throws Throwable
+	{
+		ArrayList<Object> values = new ArrayList<Object>();
+		// Rule id and next symbol of each open rule
+		int[] ids = new int[16], pos = new int[16];
+		int depth = 0, at = 0, tokpos = 0;
+
+		while(at < derivation.length || depth > 0)
+		{
+			if(depth == 0)
+			{
+				ids[0] = derivation[at++];
+				pos[0] = 0;
+				depth = 1;
+			}
+
+			int id = ids[depth-1];
+
+			if(pos[depth-1] < nonterminal[id].length)
+			{
+				if(nonterminal[id][pos[depth-1]++])
+				{
+					if(depth == ids.length)
+					{
+						ids = Arrays.copyOf(ids, depth*2);
+						pos = Arrays.copyOf(pos, depth*2);
+					}
+
+					ids[depth] = derivation[at++];
+					pos[depth] = 0;
+					depth++;
+				}
+				else
+					values.add(toks[tokpos++]);
+
+				continue;
+			}
+
+			depth--;
+
+			int len = nonterminal[id].length;
+			List args = new ArrayList();
+
+			for(int i = values.size() - len; i < values.size(); i++)
+				args.add(values.get(i));
+			for(int i = 0; i < len; i++)
+				values.remove(values.size()-1);
+
+			values.add(callFunc.invoke(referenceTb, functions[id], args));
+		}
+
+		return callFunc.invoke(referenceTb, sentFunction, new ArrayList(values));
+	}
+}
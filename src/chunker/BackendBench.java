@@ -0,0 +1,81 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Times the parser backends on the same corpus, after a warm-up pass,
+ * and counts the lines where a backend's NPs differ from the Earley
+ * parser's, and the segments per run that NP_EARLEY parsed again with
+ * the full grammar.
+ *
+ *   BackendBench [--runs N] file...
+ */
+public class BackendBench
+{
+	public static void main(String[] args) throws IOException
+	{
+		int runs = 3;
+		List<String> lines = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--runs"))
+			{
+				runs = Integer.parseInt(args[++i]);
+				continue;
+			}
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					new FileInputStream(args[i]), "UTF-8"));
+			String line;
+
+			while((line = br.readLine()) != null)
+				lines.add(line);
+
+			br.close();
+		}
+
+		List<String[]> earley = null;
+
+		for(Chunk.Backend backend : Chunk.Backend.values())
+		{
+			Chunk npc = new Chunk();
+			npc.setBackend(backend);
+
+			List<String[]> result = chunk(npc, lines);
+			long[] times = new long[runs];
+
+			for(int r = 0; r < runs; r++)
+			{
+				long start = System.nanoTime();
+				chunk(npc, lines);
+				times[r] = System.nanoTime() - start;
+			}
+
+			Arrays.sort(times);
+			double secs = times[runs / 2] / 1e9;
+
+			int differing = 0;
+			if(earley == null)
+				earley = result;
+			else
+				for(int i = 0; i < lines.size(); i++)
+					if(!Arrays.equals(earley.get(i), result.get(i)))
+						differing++;
+
+			System.out.printf(Locale.ROOT, "%-10s %8.2fs %10.0f lines/s %6d lines differ %8d fallbacks%n",
+					backend, secs, lines.size() / secs, differing, npc.npFallbacks() / (runs + 1));
+		}
+	}
+
+	private static List<String[]> chunk(Chunk npc, List<String> lines)
+	{
+		List<String[]> nps = new ArrayList<String[]>(lines.size());
+
+		for(String line : lines)
+			nps.add(npc.parse_input(new String[] {line}));
+
+		return nps;
+	}
+}
@@ -0,0 +1,158 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the beam pruned Earley parser, see Chunk.setBeamWidth(), with
+ * the exact parse at a few beam widths. For each width it prints the
+ * throughput and how well the NPs match those of the exact parse: the
+ * precision and recall of the NP spans, and the number of lines whose NPs
+ * differ at all.
+ *
+ * The beam pays off on long, ambiguous segments, so the segment length
+ * can be set with --window, which cuts every sentence into segments of
+ * that many tokens instead of the default 20.
+ *
+ *   BeamBench [--widths 1,2,4,8] [--window N] [--runs N] file...
+ */
+public class BeamBench
+{
+	public static void main(String[] args) throws IOException
+	{
+		int[] widths = {1, 2, 4, 8};
+		int window = 0;
+		int runs = 3;
+		List<String> lines = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--widths"))
+			{
+				String[] ws = args[++i].split(",");
+				widths = new int[ws.length];
+				for(int w = 0; w < ws.length; w++)
+					widths[w] = Integer.parseInt(ws[w]);
+				continue;
+			}
+			else if(args[i].equals("--window"))
+			{
+				window = Integer.parseInt(args[++i]);
+				continue;
+			}
+			else if(args[i].equals("--runs"))
+			{
+				runs = Integer.parseInt(args[++i]);
+				continue;
+			}
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					new FileInputStream(args[i]), "UTF-8"));
+			String line;
+
+			while((line = br.readLine()) != null)
+				lines.add(line);
+
+			br.close();
+		}
+
+		int[] all = new int[widths.length + 1];
+		System.arraycopy(widths, 0, all, 1, widths.length);
+
+		List<int[]> exact = null;
+		double exactSecs = 0;
+
+		System.out.printf(Locale.ROOT, "%-6s %8s %10s %8s %10s %10s %8s%n",
+				"beam", "time", "lines/s", "speedup", "precision", "recall", "differ");
+
+		for(int width : all)
+		{
+			// Fixed windows: no budget, so the policy never cuts them short
+			Chunk npc = window > 0 ?
+					new Chunk(new SegmentPolicy(window, window, Double.MAX_VALUE)) : new Chunk();
+			npc.setBeamWidth(width);
+
+			List<int[]> result = chunk(npc, lines);
+			long[] times = new long[runs];
+
+			for(int r = 0; r < runs; r++)
+			{
+				long start = System.nanoTime();
+				chunk(npc, lines);
+				times[r] = System.nanoTime() - start;
+			}
+
+			Arrays.sort(times);
+			double secs = times[runs / 2] / 1e9;
+
+			if(exact == null)
+			{
+				exact = result;
+				exactSecs = secs;
+			}
+
+			long found = 0, expected = 0, matched = 0;
+			int differing = 0;
+
+			for(int i = 0; i < lines.size(); i++)
+			{
+				int[] e = exact.get(i), b = result.get(i);
+
+				found += b.length / 2;
+				expected += e.length / 2;
+				matched += matching(e, b);
+
+				if(!Arrays.equals(e, b))
+					differing++;
+			}
+
+			System.out.printf(Locale.ROOT, "%-6s %7.2fs %10.0f %7.2fx %9.2f%% %9.2f%% %8d%n",
+					width == 0 ? "exact" : Integer.toString(width), secs, lines.size() / secs,
+					exactSecs / secs,
+					found == 0 ? 100.0 : 100.0 * matched / found,
+					expected == 0 ? 100.0 : 100.0 * matched / expected, differing);
+		}
+	}
+
+	private static List<int[]> chunk(Chunk npc, List<String> lines)
+	{
+		List<int[]> spans = new ArrayList<int[]>(lines.size());
+
+		for(String line : lines)
+			spans.add(npc.parse_spans(line));
+
+		return spans;
+	}
+
+	/**
+	 * The number of spans of 'found' that are also in 'expected', each one
+	 * matched at most once
+	 */
+	private static int matching(int[] expected, int[] found)
+	{
+		Map<Long,Integer> left = new HashMap<Long,Integer>();
+
+		for(int i = 0; i < expected.length; i += 2)
+		{
+			long span = ((long)expected[i] << 32) | expected[i+1];
+			Integer n = left.get(span);
+			left.put(span, n == null ? 1 : n+1);
+		}
+
+		int matched = 0;
+
+		for(int i = 0; i < found.length; i += 2)
+		{
+			long span = ((long)found[i] << 32) | found[i+1];
+			Integer n = left.get(span);
+
+			if(n != null && n > 0)
+			{
+				left.put(span, n-1);
+				matched++;
+			}
+		}
+
+		return matched;
+	}
+}
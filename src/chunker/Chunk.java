@@ -1,6 +1,9 @@
 package chunker;
 
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 /**
@@ -35,12 +38,44 @@ public class Chunk
 {
 	private Parser parser = null;
 	private TreeBuilder tb = null;
+	private TreeBuilder npTb = null;
+	// The segments NP_EARLEY left to the full grammar
+	private long npFallbacks = 0;
+	private SegmentPolicy policy = null;
+	private Backend backend = Backend.EARLEY;
+	private CykParser cyk = null;
+	// Segments left unparsed by mayHaveNP()
+	private long skipped = 0;
+	// The beam width of the Earley parser, 0 for an exact parse
+	private int beam = 0;
+	private ChunkCache cache = null;
 
 	// If a sentence contains more words than 'maxTokens' it will be
 	// split up into blocks of 'maxTokens' tokens. Each block will be
 	// treated as a separate sentence
 	private static final int maxTokens = 20;
 
+	// What the cache keys can't see: the reduction actions in callFunc()
+	// and the encoding of the NPs. Bump it when either changes, so that
+	// the entries of older versions are never hit, see cacheKey().
+	private static final int cacheVersion = 2;
+
+	/**
+	 * The parsers that can be used for the segments
+	 */
+	public enum Backend
+	{
+		// The translation of the SPARK parser, TreeBuilder
+		EARLEY,
+		// The bit vector chart parser, CykParser. Experimental, its NPs
+		// differ from the Earley parser's, so it's only used by
+		// EquivalenceCheck and BackendBench, see backendOption()
+		CYK,
+		// The Earley parser with the grammar specialized for NPs, see
+		// TreeBuilder.specializeForNPs()
+		NP_EARLEY
+	}
+
 	private enum FunctionNames
 	{
 		// This is the initial function
@@ -103,7 +138,7 @@ public class Chunk
 		p_infp_250
 	}
 
-	private enum TokenTypes
+	enum TokenTypes
 	{
 		// This group below are single token types, which represent one token
 		sent_adv,
@@ -220,45 +255,707 @@ public class Chunk
 		tb = new TreeBuilder();
 	}
 
+	public Chunk(SegmentPolicy policy)
+	{
+		this();
+		this.policy = policy;
+	}
+
+	/**
+	 * The backend named by a --backend option, which can only be one that
+	 * gives the same NPs as the Earley parser
+	 */
+	static Backend backendOption(String name)
+	{
+		Backend backend = Backend.valueOf(name.toUpperCase());
+
+		if(backend == Backend.CYK)
+			throw new IllegalArgumentException("The cyk backend is experimental, its NPs differ " +
+					"from the earley backend's, see EquivalenceCheck --engine cyk");
+
+		return backend;
+	}
+
+	public void setBackend(Backend backend)
+	{
+		if(backend == Backend.CYK && cyk == null)
+			cyk = new CykParser(this);
+		if(backend == Backend.NP_EARLEY && npTb == null)
+			npTb = new TreeBuilder(true);
+
+		this.backend = backend;
+	}
+
+	/**
+	 * The Earley parser of the current backend, which is also the grammar
+	 * seen by the accessors below
+	 */
+	private TreeBuilder earley()
+	{
+		return backend == Backend.NP_EARLEY ? npTb : tb;
+	}
+
+	/**
+	 * Counts what each rule costs the Earley parser in 'profile', null to
+	 * stop counting
+	 */
+	public void setProfile(RuleProfile profile)
+	{
+		if(profile != null && profile.ruleCount() != ruleCount())
+			throw new IllegalArgumentException("The profile is of another grammar");
+
+		earley().profile = profile;
+	}
+
+	/**
+	 * Makes the Earley parser complete at most about 'width' derivations
+	 * per nonterminal and origin in each state, preferring those of the
+	 * highest rule priority, 0 for an exact parse. Derivations that would
+	 * likely lose in ambiguity() later are dropped before the completer
+	 * spends time on them, but so can the one that would have won, so NPs
+	 * may come out different. See BeamBench for how often. The items of
+	 * the states are the same as without a beam, so a sentence parses
+	 * exactly when it does without one.
+	 */
+	public void setBeamWidth(int width)
+	{
+		if(width < 0)
+			throw new IllegalArgumentException("Negative beam width " + width);
+
+		beam = width;
+	}
+
+	/**
+	 * Looks the NPs of each segment up in 'cache' before parsing it, and
+	 * adds those of the segments that are parsed, null for no cache.
+	 *
+	 * A hit isn't passed on to the segment policy, since it says nothing
+	 * about how long parsing takes. A policy with a time budget therefore
+	 * only adapts to the segments that missed, and with a warm cache it can
+	 * cut later sentences differently than with a cold one.
+	 */
+	public void setCache(ChunkCache cache)
+	{
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets how sentences are cut up into segments, null for the default
+	 * of 'maxTokens' words per segment
+	 */
+	public void setSegmentPolicy(SegmentPolicy policy)
+	{
+		this.policy = policy;
+	}
+
+	/*
+	 * The grammar as seen by CykParser, RuleProfile and CorpusGenerator, of
+	 * the current backend's
+	 * Earley parser. Rules are identified by the order they are created in
+	 * collectRules().
+	 */
+
+	int ruleCount()
+	{
+		return earley().byId.length;
+	}
+
+	String ruleText(int id)
+	{
+		return earley().byId[id] + "  (" + earley().rule2func.get(earley().byId[id]) + ")";
+	}
+
+	boolean isNonterminal(TokenTypes t)
+	{
+		return earley().rules.hasKey(t);
+	}
+
+	TokenTypes ruleLhs(int id)
+	{
+		return earley().byId[id].lhs;
+	}
+
+	TokenTypes[] ruleRhs(int id)
+	{
+		return earley().byId[id].rhs.clone();
+	}
+
+	int rulePriority(int id)
+	{
+		return earley().priority[id];
+	}
+
+	/**
+	 * The ids of the rules of a nonterminal, in the order they are tried
+	 */
+	int[] rulesFor(TokenTypes nt)
+	{
+		TreeBuilder.Rule[] rs = earley().rules.get(nt);
+		int[] ids = new int[rs.length];
+
+		for(int i = 0; i < ids.length; i++)
+			ids[i] = rs[i].id;
+
+		return ids;
+	}
+
+	int grammarFingerprint()
+	{
+		return earley().fingerprint;
+	}
+
+	/**
+	 * The tree of a derivation from CykParser of the full grammar, built
+	 * by TreeBuilder.derive(), for AstBench
+	 */
+	Object derive(int[] derivation, Segment segment)
+	{
+		return tb.derive(derivation, Arrays.asList(segment.tokens));
+	}
+
 	public String[] parse_input(String[] lines)
 	{
 		List<String> nps = new ArrayList<String>();
 
-		for(String line : lines)
+		for(String line : lines)
+		{
+			for(Segment segment : tokenizeLine(line))
+			{
+				if(Thread.currentThread().isInterrupted())
+					throw new CancellationException("Chunking was interrupted");
+
+				nps.addAll(chunkSegment(segment));
+			}
+		}
+
+		String[] array = new String[nps.size()];
+		return nps.toArray(array);
+	}
+
+	/**
+	 * Receives the NPs of parse_stream() as they are found
+	 */
+	public interface NPHandler
+	{
+		void handle(String np) throws IOException;
+	}
+
+	/**
+	 * Like parse_input() for the lines read from 'in', with the NPs passed
+	 * to 'handler' in the same order. A line is never held in memory as a
+	 * whole: its words are read a segment at a time and each segment is
+	 * parsed as soon as it is complete, so a single line of any length is
+	 * chunked with the memory of one segment.
+	 *
+	 * With an adaptive time budget the policy sees the timings of a line's
+	 * earlier segments before it cuts the next one, so the segments may
+	 * differ from those of parse_input().
+	 */
+	public void parse_stream(Reader in, NPHandler handler) throws IOException
+	{
+		TokenReader reader = new TokenReader(in);
+		List<Token> tokens = new ArrayList<Token>();
+
+		while(reader.nextLine())
+		{
+			tokens.clear();
+			String wt = reader.next();
+
+			if(policy != null)
+			{
+				// Positions are relative to the line, as in scan(line)
+				for(int pos = 0; wt != null; pos++)
+				{
+					Token token = parser.tokenize(wt, pos);
+					if(token != null)
+						tokens.add(token);
+
+					// The policy never looks further ahead than its longest
+					// window
+					if(tokens.size() == policy.maxWindow())
+						streamCut(tokens, handler);
+
+					wt = reader.next();
+				}
+
+				while(!tokens.isEmpty())
+					streamCut(tokens, handler);
+			}
+			else
+			{
+				// The same segments of 'maxTokens' words as formatLine()
+				for(int offset = 0; wt != null; offset += maxTokens)
+				{
+					tokens.clear();
+
+					for(int pos = 0; pos < maxTokens && wt != null; pos++)
+					{
+						Token token = parser.tokenize(wt, pos);
+						if(token != null)
+							tokens.add(token);
+
+						wt = reader.next();
+					}
+
+					stream(new Segment(tokens.toArray(new Token[tokens.size()]), offset), handler);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cuts the first segment off 'tokens' as cut() would and chunks it
+	 */
+	private void streamCut(List<Token> tokens, NPHandler handler) throws IOException
+	{
+		TokenTypes[] types = new TokenTypes[tokens.size()];
+		for(int i = 0; i < types.length; i++)
+			types[i] = tokens.get(i).type;
+
+		List<Token> first = tokens.subList(0, policy.window(types, 0));
+		Segment segment = new Segment(first.toArray(new Token[first.size()]), 0);
+		first.clear();
+
+		stream(segment, handler);
+	}
+
+	private void stream(Segment segment, NPHandler handler) throws IOException
+	{
+		if(Thread.currentThread().isInterrupted())
+			throw new CancellationException("Chunking was interrupted");
+
+		for(String np : chunkSegment(segment))
+			handler.handle(np);
+	}
+
+	/**
+	 * The first step of parse_input(), cuts a line up in segments and runs
+	 * the tokenizer on them. Blank lines have no segments.
+	 */
+	Segment[] tokenizeLine(String line)
+	{
+		if(line.trim().equals(""))
+			return new Segment[0];
+
+		if(policy != null)
+			return cut(scan(line));
+
+		// Cut the line up in segment of max 'maxTokens' tokens each
+		// This is due to the chunking being quadratic wrt the number of
+		// words in a sentence
+		String[] formattedLines = formatLine(line);
+		Segment[] segments = new Segment[formattedLines.length];
+
+		for(int i = 0; i < formattedLines.length; i++)
+		{
+			List<Token> tokens = scan(formattedLines[i]);
+			segments[i] = new Segment(tokens.toArray(new Token[tokens.size()]), i*maxTokens);
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Same as tokenizeLine() for words that have already been split from
+	 * their tags
+	 */
+	Segment[] tokenizeWords(String[] words, String[] tags)
+	{
+		if(policy != null)
+			return cut(parser.tokenize(words, tags, 0, words.length));
+
+		// Same segments as formatLine() would give
+		List<Segment> segments = new ArrayList<Segment>();
+
+		for(int from = 0; from < words.length; from += maxTokens)
+		{
+			List<Token> tokens = parser.tokenize(words, tags, from,
+					Math.min(words.length, from + maxTokens));
+			segments.add(new Segment(tokens.toArray(new Token[tokens.size()]), from));
+		}
+
+		return segments.toArray(new Segment[segments.size()]);
+	}
+
+	/**
+	 * Cuts a tokenized sentence up in segments as decided by the policy
+	 */
+	private Segment[] cut(List<Token> tokens)
+	{
+		TokenTypes[] types = new TokenTypes[tokens.size()];
+		for(int i = 0; i < types.length; i++)
+			types[i] = tokens.get(i).type;
+
+		List<Segment> segments = new ArrayList<Segment>();
+
+		for(int from = 0; from < types.length; )
+		{
+			int n = policy.window(types, from);
+
+			// The token positions are already relative to the whole line
+			segments.add(new Segment(tokens.subList(from, from + n).toArray(new Token[n]), 0));
+			from += n;
+		}
+
+		return segments.toArray(new Segment[segments.size()]);
+	}
+
+	/**
+	 * The last step of parse_input(), parses a tokenized segment and
+	 * returns its NPs. A segment that can't be parsed has no NPs.
+	 */
+	List<String> chunkSegment(Segment segment)
+	{
+		byte[] key = cache == null ? null : cacheKey(segment);
+
+		if(key != null)
+		{
+			byte[] value = cache.get(key);
+			// Not passed on to the policy, see setCache()
+			if(value != null)
+				return decodeNPs(segment, value);
+		}
+
+		long start = System.nanoTime();
+		AST parseTree = parseSegment(segment);
+
+		if(policy != null)
+			policy.parsed(segment.size(), System.nanoTime() - start);
+
+		if(key != null)
+		{
+			// Built from the value so that hits and misses give the same
+			byte[] value = encodeNPs(segment, parseTree);
+			cache.put(key, value);
+			return decodeNPs(segment, value);
+		}
+
+		if(parseTree == null)
+			return new ArrayList<String>();
+
+		return extractNPs(parseTree);
+	}
+
+	/**
+	 * What the NPs of a segment depend on: the grammar, the token types and
+	 * which tokens have the same word, since error recovery compares them,
+	 * and the cacheVersion. Null for segments that aren't worth caching.
+	 */
+	private byte[] cacheKey(Segment segment)
+	{
+		if(segment.size() < 1 || segment.size() > Short.MAX_VALUE / 2 || !mayHaveNP(segment))
+			return null;
+
+		ByteBuffer key = ByteBuffer.allocate(16 + 3*segment.size());
+		key.putInt(cacheVersion).putInt(grammarFingerprint()).putInt(backend.ordinal()).putInt(beam);
+
+		Map<String,Integer> first = new HashMap<String,Integer>();
+
+		for(int i = 0; i < segment.size(); i++)
+		{
+			Token t = segment.tokens[i];
+			Integer same = -1;
+
+			if(t.word != null)
+			{
+				same = first.get(t.word);
+				if(same == null)
+				{
+					same = i;
+					first.put(t.word, i);
+				}
+			}
+
+			key.put((byte)t.type.ordinal()).putShort(same.shortValue());
+		}
+
+		return key.array();
+	}
+
+	/**
+	 * The NPs of a parse as the tokens of the segment they are made of,
+	 * for each NP a count followed by token indexes, -1 for a space
+	 */
+	private byte[] encodeNPs(Segment segment, AST parseTree)
+	{
+		List<List<Integer>> nps = new ArrayList<List<Integer>>();
+
+		if(parseTree != null)
+		{
+			Map<Token,Integer> index = new IdentityHashMap<Token,Integer>();
+			for(int i = 0; i < segment.size(); i++)
+				index.put(segment.tokens[i], i);
+
+			encodeNPs(parseTree, index, nps);
+		}
+
+		int size = 2;
+		for(List<Integer> np : nps)
+			size += 2 + 2*np.size();
+
+		ByteBuffer value = ByteBuffer.allocate(size);
+		value.putShort((short)nps.size());
+
+		for(List<Integer> np : nps)
+		{
+			value.putShort((short)np.size());
+			for(int i : np)
+				value.putShort((short)i);
+		}
+
+		return value.array();
+	}
+
+	/**
+	 * Same traversal as extractNPs()
+	 */
+	private void encodeNPs(AST tree, Map<Token,Integer> index, List<List<Integer>> nps)
+	{
+		for(AST kid : tree.kids)
+			encodeNPs(kid, index, nps);
+
+		if(tree.kind == TokenTypes.NP)
+		{
+			List<Integer> np = new ArrayList<Integer>();
+			encodeNP(tree.kids, index, np);
+			nps.add(np);
+		}
+	}
+
+	/**
+	 * Same as extractNP()
+	 */
+	private void encodeNP(AST[] kids, Map<Token,Integer> index, List<Integer> np)
+	{
+		for(int i = 0; i < kids.length; i++)
+		{
+			if(i > 0)
+				np.add(-1);
+
+			if(kids[i].token != null && kids[i].token.word != null)
+				np.add(index.get(kids[i].token));
+			else
+				encodeNP(kids[i].kids, index, np);
+		}
+	}
+
+	private List<String> decodeNPs(Segment segment, byte[] bytes)
+	{
+		ByteBuffer value = ByteBuffer.wrap(bytes);
+		int n = value.getShort();
+		List<String> nps = new ArrayList<String>(n);
+
+		for(int i = 0; i < n; i++)
+		{
+			StringBuilder np = new StringBuilder();
+
+			for(int k = value.getShort(); k > 0; k--)
+			{
+				int t = value.getShort();
+				np.append(t < 0 ? " " : segment.tokens[t].word);
+			}
+
+			nps.add(np.toString());
+		}
+
+		return nps;
+	}
+
+	/**
+	 * Like parse_input() for a single sentence whose words and tags are
+	 * already split up, so words may contain '/' and spaces
+	 */
+	public String[] parse_tokens(String[] words, String[] tags)
+	{
+		List<String> nps = new ArrayList<String>();
+
+		for(Segment segment : tokenizeWords(words, tags))
+		{
+			if(Thread.currentThread().isInterrupted())
+				throw new CancellationException("Chunking was interrupted");
+
+			nps.addAll(chunkSegment(segment));
+		}
+
+		String[] array = new String[nps.size()];
+		return nps.toArray(array);
+	}
+
+	/**
+	 * Like parse_input() for a single line, but each NP is returned as a
+	 * token span instead of a string. The spans are pairs of start and end
+	 * (exclusive) indexes into line.split(" "), in the same order as the
+	 * NPs from parse_input().
+	 */
+	public int[] parse_spans(String line)
+	{
+		List<int[]> spans = new ArrayList<int[]>();
+
+		for(Segment segment : tokenizeLine(line))
+		{
+			if(Thread.currentThread().isInterrupted())
+				throw new CancellationException("Chunking was interrupted");
+
+			AST parseTree = parseSegment(segment);
+
+			if(parseTree != null)
+				extractSpans(parseTree, segment.offset, spans);
+		}
+
+		int[] array = new int[spans.size()*2];
+		for(int i = 0; i < spans.size(); i++)
+		{
+			array[2*i] = spans.get(i)[0];
+			array[2*i+1] = spans.get(i)[1];
+		}
+
+		return array;
+	}
+
+	private AST parseSegment(Segment segment)
+	{
+		if(segment.size() < 1)
+			return null;
+
+		if(!mayHaveNP(segment))
+		{
+			skipped++;
+			return null;
+		}
+
+		List<Token> tokens = new ArrayList<Token>(segment.size()+1);
+		for(Token t : segment.tokens)
+			tokens.add(t);
+
+		try
+		{
+			return parse(tokens);
+		}
+		catch(CancellationException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+//			System.out.println(e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Runs parse_input() on the given executor. Cancelling the returned
+	 * future interrupts the parse, also in the middle of a sentence.
+	 *
+	 * Calls on the same Chunk are serialized since it isn't thread safe,
+	 * use one Chunk per thread to chunk in parallel.
+	 */
+	public CompletableFuture<List<String>> chunkAsync(final String[] lines,
+			Executor executor)
+	{
+		final Object lock = new Object();
+		final Thread[] runner = new Thread[1];
+
+		final CompletableFuture<List<String>> future = new CompletableFuture<List<String>>()
 		{
-			if(line.trim().equals(""))
-				continue;
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning)
+			{
+				boolean cancelled = super.cancel(mayInterruptIfRunning);
 
-			// Cut the line up in segment of max 100 tokens each
-			// This is due to the chunking being quadratic wrt the number of
-			// words in a sentence
-			String[] formattedLines = formatLine(line);
+				synchronized(lock)
+				{
+					if(cancelled && runner[0] != null)
+						runner[0].interrupt();
+				}
 
-			for(String fLine : formattedLines)
-			{
-				List<Token> tokens = scan(fLine);
+				return cancelled;
+			}
+		};
 
-				if(tokens.size() < 1)
-					continue;
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				synchronized(lock)
+				{
+					if(future.isDone())
+						return;
 
-				AST parseTree = null;
+					runner[0] = Thread.currentThread();
+				}
 
 				try
 				{
-					parseTree = parse(tokens);
+					String[] nps = null;
+
+					synchronized(Chunk.this)
+					{
+						nps = parse_input(lines);
+					}
+
+					future.complete(Arrays.asList(nps));
+				}
+				catch(CancellationException e)
+				{
+					future.cancel(false);
 				}
-				catch(Exception e)
+				catch(Throwable t)
 				{
-//					System.out.println(e.getMessage());
-					continue;
+					future.completeExceptionally(t);
+				}
+				finally
+				{
+					synchronized(lock)
+					{
+						runner[0] = null;
+						// Don't leak our interrupt to the executor's next task
+						Thread.interrupted();
+					}
 				}
-
-				nps.addAll(extractNPs(parseTree));
 			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Whether a segment has a token an NP can start with followed, or
+	 * itself, by one it can end with. A segment without such a pair has no
+	 * NPs however it is parsed, error recovery included, so it isn't
+	 * parsed at all. The bounds are those of the full grammar, which has
+	 * the same NP rules as the other backends.
+	 */
+	private boolean mayHaveNP(Segment segment)
+	{
+		boolean started = false;
+
+		for(Token t : segment.tokens)
+		{
+			started |= tb.npFirst.contains(t.type);
+
+			if(started && tb.npLast.contains(t.type))
+				return true;
 		}
 
-		String[] array = new String[nps.size()];
-		return nps.toArray(array);
+		return false;
+	}
+
+	/**
+	 * The number of segments that weren't parsed since they can't have an
+	 * NP, see mayHaveNP()
+	 */
+	public long skippedSegments()
+	{
+		return skipped;
+	}
+
+	/**
+	 * The number of segments the NP_EARLEY backend parsed again with the
+	 * full grammar, see TreeBuilder.orderFree()
+	 */
+	public long npFallbacks()
+	{
+		return npFallbacks;
 	}
 
 	private String[] formatLine(String line)
@@ -301,29 +998,43 @@ public class Chunk
 	private List<String> extractNPs(AST tree)
 	{
 		List<String> nps = new ArrayList<String>();
+		extractNPs(tree, nps);
+		return nps;
+	}
 
-		for(Object kid : tree.kids)
-			nps.addAll(extractNPs((AST)kid));
-
-		if(((Token)tree.type).type.equals(TokenTypes.NP))
-			nps.add(extractNP(tree.kids));
+	private void extractNPs(AST tree, List<String> nps)
+	{
+		for(AST kid : tree.kids)
+			extractNPs(kid, nps);
 
-		return nps;
+		if(tree.kind == TokenTypes.NP)
+			nps.add(extractNP(tree.kids, new StringBuilder()).toString());
 	}
 
-	private String extractNP(List<AST> kids)
+	/**
+	 * Same traversal as extractNPs() but collects the span of each NP,
+	 * 'offset' is the index of the segment's first word in the line
+	 */
+	private void extractSpans(AST tree, int offset, List<int[]> spans)
 	{
-		String np = "";
+		for(AST kid : tree.kids)
+			extractSpans(kid, offset, spans);
+
+		if(tree.kind == TokenTypes.NP)
+			spans.add(new int[] {offset + tree.start, offset + tree.end});
+	}
 
-		int i = 0;
-		for(AST kid : kids)
+	private StringBuilder extractNP(AST[] kids, StringBuilder np)
+	{
+		for(int i = 0; i < kids.length; i++)
 		{
-			np += (i++ == 0 ? "" : " ");
+			if(i > 0)
+				np.append(' ');
 
-			if(((Token)kid.type).word != null)
-				np += ((Token)kid.type).word;
+			if(kids[i].token != null && kids[i].token.word != null)
+				np.append(kids[i].token.word);
 			else
-				np += extractNP(kid.kids);
+				extractNP(kids[i].kids, np);
 		}
 
 		return np;
@@ -331,8 +1042,35 @@ public class Chunk
 
 	private AST parse(List<Token> tokens) throws Exception
 	{
-		tb.reset();
-		AST pt = tb.parse(tokens);
+		if(backend == Backend.CYK)
+		{
+			TokenTypes[] types = new TokenTypes[tokens.size()];
+			for(int i = 0; i < types.length; i++)
+				types[i] = tokens.get(i).type;
+
+			int[] derivation = cyk.parse(types);
+			if(derivation == null)
+				throw new Exception("No parse");
+
+			return tb.derive(derivation, tokens);
+		}
+
+		TreeBuilder earley = earley();
+
+		earley.reset();
+		if(earley.profile != null)
+			earley.profile.segment();
+
+		AST pt = earley.parse(tokens);
+
+		// The NP grammar can't tell which of the tied parses the full one
+		// would pick, see TreeBuilder.orderFree()
+		if(pt == null && earley == npTb)
+		{
+			npFallbacks++;
+			tb.reset();
+			pt = tb.parse(tokens);
+		}
 
 		return pt;
 	}
@@ -342,11 +1080,51 @@ public class Chunk
 		return parser.tokenize(line);
 	}
 
+	/**
+	 * A segment that has been run through the tokenizer but not parsed.
+	 * Tokens are immutable, so a segment can be passed between threads and
+	 * parsed by any Chunk.
+	 */
+	static class Segment
+	{
+		private Token[] tokens = null;
+		// Index in the line of the word that token positions are relative to
+		private int offset = 0;
+
+		private Segment(Token[] tokens, int offset)
+		{
+			this.tokens = tokens;
+			this.offset = offset;
+		}
+
+		public int size()
+		{
+			return tokens.length;
+		}
+
+		public TokenTypes type(int i)
+		{
+			return tokens[i].type;
+		}
+
+		public TokenTypes[] types()
+		{
+			TokenTypes[] types = new TokenTypes[tokens.length];
+
+			for(int i = 0; i < tokens.length; i++)
+				types[i] = tokens[i].type;
+
+			return types;
+		}
+	}
+
 	private class Token
 	{
 		private TokenTypes type = null;
 		private String word = null;
 		private String tag = null;
+		// Index of the word in the segment it was read from
+		private int pos = -1;
 
 		public Token(TokenTypes type)
 		{
@@ -360,6 +1138,12 @@ public class Chunk
 			this.tag = tag;
 		}
 
+		public Token(TokenTypes type, String word, String tag, int pos)
+		{
+			this(type, word, tag);
+			this.pos = pos;
+		}
+
 		public int compareTo(Token t)
 		{
 			return type.compareTo(t.type);
@@ -398,57 +1182,81 @@ public class Chunk
 			String[] wordsTags = s.split(" ");
 
 			// Create a token object for each word n tag
-			for(String wt : wordsTags)
+			for(int pos = 0; pos < wordsTags.length; pos++)
 			{
-				// Split up into word and tag
-				int index = wt.lastIndexOf('/');
-				String word = null;
+				Token token = tokenize(wordsTags[pos], pos);
 
-				try
-				{
-					word = wt.substring(0, index);
-				}
-				catch(Exception e)
-				{
-					System.out.print(wt);
-				}
+				// If there is no token the string is assumed to be a
+				// sequence of white space chars, do nothing
+				if(token != null)
+					tokens.add(token);
+			}
 
-				String tag = wt.substring(index+1, wt.length());
+			return tokens;
+		}
 
-				boolean match = false;
+		/**
+		 * The token of a single 'word/tag' string at index 'pos' of its
+		 * segment, null if it has none
+		 */
+		public Token tokenize(String wt, int pos)
+		{
+			// Split up into word and tag
+			int index = wt.lastIndexOf('/');
+			String word = null;
 
-				// First check against the wordpatterns
+			try
+			{
+				word = wt.substring(0, index);
+			}
+			catch(Exception e)
+			{
+				System.out.print(wt);
+			}
 
-				for(Pattern p : wordPatterns.keySet())
-				{
-					if(p.matcher(wt).matches())
-					{
-						tokens.add(new Token(wordPatterns.get(p), word, tag));
-						match = true;
-						break;
-					}
-				}
+			String tag = wt.substring(index+1, wt.length());
 
-				if(match)
-					continue;
+			return classify(word, tag, wt, pos);
+		}
 
-				// If no match was found, search through the rest of the patterns
-				for(Pattern p : miscPatterns.keySet())
-				{
-					if(p.matcher(tag).matches())
-					{
-						tokens.add(new Token(miscPatterns.get(p), word, tag));
-						break;
-					}
-				}
+		/**
+		 * Same as tokenize() but for words and tags that are already split
+		 * up, e.g. from a column format
+		 */
+		public List<Token> tokenize(String[] words, String[] tags, int from, int to)
+		{
+			List<Token> tokens = new ArrayList<Token>(to - from);
 
-				// If we get to this point the string is assumed to be a
-				// sequence of white space chars, do nothing
+			for(int i = from; i < to; i++)
+			{
+				Token token = classify(words[i], tags[i], words[i] + "/" + tags[i], i - from);
+
+				if(token != null)
+					tokens.add(token);
 			}
 
 			return tokens;
 		}
 
+		/**
+		 * Finds the type of a word and tag, 'wt' is the 'word/tag' string.
+		 * Returns null if no pattern matches.
+		 */
+		private Token classify(String word, String tag, String wt, int pos)
+		{
+			// First check against the wordpatterns
+			for(Pattern p : wordPatterns.keySet())
+				if(p.matcher(wt).matches())
+					return new Token(wordPatterns.get(p), word, tag, pos);
+
+			// If no match was found, search through the rest of the patterns
+			for(Pattern p : miscPatterns.keySet())
+				if(p.matcher(tag).matches())
+					return new Token(miscPatterns.get(p), word, tag, pos);
+
+			return null;
+		}
+
 		private void addPatterns()
 		{
 			// There are two types of patterns, one that checks for words
@@ -503,6 +1311,31 @@ public class Chunk
 		}
 	}
 
+	/**
+	 * One pending rule in TreeBuilder.buildTree(), i.e. what used to be a
+	 * call to the recursive buildTree_r, or in TreeBuilder.derive()
+	 */
+	private static class Frame
+	{
+		private TreeBuilder.Rule rule = null;
+		private int pos = 0;
+		private int parent = 0;
+		private int state = 0;
+
+		public Frame(TreeBuilder.StateItem item, int state)
+		{
+			this.rule = item.getRule();
+			this.pos = item.getPosition();
+			this.parent = item.getParent();
+			this.state = state;
+		}
+
+		public Frame(TreeBuilder.Rule rule)
+		{
+			this.rule = rule;
+		}
+	}
+
 	/**
 	 * This class corresponds to the GenericParser in the Python code
 	 */
@@ -519,16 +1352,208 @@ public class Chunk
 		private Rule startRule = null;
 		private Rule sentRule = null;
 
+		// Scratch space for buildTree() and callFunc()
+		private AST[] args = new AST[16];
+		private Kids kids = new Kids();
+
+		// All rules by id, i.e. in the order they were created
+		private List<Rule> ruleList = new ArrayList<Rule>();
+		private Rule[] byId = null;
+		// The priority of each rule's function, see resolve()
+		private int[] priority = null;
+		private int fingerprint = 0;
+		// The terminals each nonterminal can start with, whether it can be
+		// empty and the terminals that can follow it, see makeFOLLOW()
+		private Hashtable<TokenTypes,EnumSet<TokenTypes>> starts = null;
+		private EnumSet<TokenTypes> nullable = null;
+		private Hashtable<TokenTypes,EnumSet<TokenTypes>> follow = null;
+		// The terminals that an item can go on with, by rule id and position
+		private EnumSet<?>[][] lookahead = null;
+		// The terminals an NP can start and end with, see makeNPBounds()
+		private EnumSet<TokenTypes> npFirst = null;
+		private EnumSet<TokenTypes> npLast = null;
+
+		// predictRules() by nonterminal and token type
+		private Rule[][][] predictions = null;
+		// With a beam, the number of complete items let through and their
+		// highest priority, by origin and lhs, in the state being built
+		private HashMap<Integer,int[]> inBeam = new HashMap<Integer,int[]>();
+		// Rules of specializeForNPs() and the PHRASE rule each one replaces
+		private Hashtable<Rule,Rule> inlined = new Hashtable<Rule,Rule>();
+		private RuleProfile profile = null;
+
 		public TreeBuilder()
+		{
+			this(false);
+		}
+
+		/**
+		 * @param npOnly whether to specialize the grammar for NPs
+		 */
+		public TreeBuilder(boolean npOnly)
 		{
 			rules = new Rules();
 			rule2func = new Hashtable<Rule,FunctionNames>();
 
 			collectRules();
 
+			if(npOnly)
+				specializeForNPs();
+
 			augment();
 
 			makeFIRST();
+
+			makeFOLLOW();
+
+			makeNPBounds();
+
+			byId = ruleList.toArray(new Rule[ruleList.size()]);
+			priority = new int[byId.length];
+
+			for(int i = 0; i < byId.length; i++)
+			{
+				Rule rule = inlined.containsKey(byId[i]) ? inlined.get(byId[i]) : byId[i];
+				FunctionNames name = rule2func.get(rule);
+				priority[i] = name == null ? -1 : priority(name);
+			}
+
+			// Before any parse grows the SENT rule
+			fingerprint = fingerprint();
+
+			lookahead = new EnumSet<?>[byId.length][];
+
+			for(Rule r : byId)
+			{
+				lookahead[r.id] = new EnumSet<?>[r.rhs.length + 1];
+
+				// Replaced by specializeForNPs()
+				if(!rules.hasKey(r.lhs))
+				{
+					Arrays.fill(lookahead[r.id], EnumSet.noneOf(TokenTypes.class));
+					continue;
+				}
+
+				for(int pos = 0; pos <= r.rhs.length; pos++)
+				{
+					EnumSet<TokenTypes> la = EnumSet.noneOf(TokenTypes.class);
+
+					for(TokenTypes t : TokenTypes.values())
+						if(canGoOn(r.lhs, r.rhs, pos, t))
+							la.add(t);
+
+					lookahead[r.id][pos] = la;
+				}
+			}
+
+			TokenTypes[] types = TokenTypes.values();
+			predictions = new Rule[types.length][types.length][];
+
+			for(TokenTypes nt : types)
+			{
+				if(!rules.hasKey(nt))
+					continue;
+
+				for(TokenTypes t : types)
+				{
+					List<Rule> rs = predictRules(nt, t);
+					predictions[nt.ordinal()][t.ordinal()] = rs.toArray(new Rule[rs.size()]);
+				}
+			}
+		}
+
+		/**
+		 * Inlines the nonterminals that can't contain an NP and are only
+		 * used as a whole PHRASE, i.e. VC and INFP: PHRASE ::= VC becomes
+		 * one PHRASE rule per VC rule. That saves an item and a completion
+		 * for each of them wherever a PHRASE is predicted, and the verbs
+		 * that were both a PHRASE and a VC are only parsed one way.
+		 *
+		 * An inlined rule has the priority of the PHRASE rule it replaces
+		 * and the reduction of the rule it was made from, so the trees, and
+		 * the NPs, stay the same. A single terminal PHRASE rule that is also
+		 * an inlined rule is dropped, in the full grammar it always loses to
+		 * the PHRASE over the nonterminal.
+		 *
+		 * The inlined PHRASEs complete earlier in their state than PHRASE ::=
+		 * VC did, so where one ties with a PHRASE over other tokens the full
+		 * grammar could pick the other one. ambiguity() gives up on those,
+		 * see orderFree(), and Chunk parses the segment again with the full
+		 * grammar, which happens for about 1 in 1000 sentences. That ties
+		 * without an inlined PHRASE come out the same is what
+		 * test/equivalence.sh checks, it runs this backend too.
+		 *
+		 * The rest of the chart is NP machinery: the other phrases over no
+		 * NP, i.e. what VC and INFP were and their INFVERB_S, SADVP_S and
+		 * PART_Q, were about 2.5% of the items, and PP can't go since the
+		 * NPs in it are output too. So the grammar has about 1% fewer items.
+		 */
+		private void specializeForNPs()
+		{
+			// The nonterminals that can derive an NP
+			HashSet<TokenTypes> npBearing = new HashSet<TokenTypes>();
+			npBearing.add(TokenTypes.NP);
+
+			boolean changes = true;
+			while(changes)
+			{
+				changes = false;
+
+				for(Rule[] rulelist : rules.values())
+					for(Rule r : rulelist)
+						for(TokenTypes sym : r.rhs)
+							if(npBearing.contains(sym) && npBearing.add(r.lhs))
+								changes = true;
+			}
+
+			// The nonterminals used anywhere but as a whole PHRASE
+			HashSet<TokenTypes> usedElsewhere = new HashSet<TokenTypes>();
+			for(Rule[] rulelist : rules.values())
+				for(Rule r : rulelist)
+					if(r.lhs != TokenTypes.PHRASE || r.rhs.length != 1)
+						for(TokenTypes sym : r.rhs)
+							usedElsewhere.add(sym);
+
+			List<Rule> phrase = new ArrayList<Rule>();
+
+			for(Rule r : rules.get(TokenTypes.PHRASE))
+			{
+				TokenTypes sym = r.rhs.length == 1 ? r.rhs[0] : null;
+
+				if(sym == null || !rules.hasKey(sym) || npBearing.contains(sym) ||
+						usedElsewhere.contains(sym))
+				{
+					phrase.add(r);
+					continue;
+				}
+
+				for(Rule xr : rules.get(sym))
+				{
+					Rule nr = new Rule(TokenTypes.PHRASE, xr.rhs);
+					rule2func.put(nr, rule2func.get(xr));
+					inlined.put(nr, r);
+					phrase.add(nr);
+				}
+
+				rules.remove(sym);
+			}
+
+			List<Rule> kept = new ArrayList<Rule>();
+			for(Rule r : phrase)
+			{
+				boolean shadowed = false;
+
+				if(!inlined.containsKey(r))
+					for(Rule nr : phrase)
+						if(inlined.containsKey(nr) && nr.equals(r) &&
+								priority(rule2func.get(inlined.get(nr))) > priority(rule2func.get(r)))
+							shadowed = true;
+
+				if(!shadowed)
+					kept.add(r);
+			}
+
+			rules.put(TokenTypes.PHRASE, kept.toArray(new Rule[kept.size()]));
 		}
 
 		private void augment()
@@ -550,6 +1575,7 @@ public class Chunk
 			List<State> states = new ArrayList<State>();
 			State state = new State();
 			state.append(new StateItem(startRule, 0, 0));
+			state.reach();
 			states.add(state);
 
 			String prevError = null;
@@ -562,15 +1588,19 @@ public class Chunk
 
 				for( ; i < tokens.size(); i++)
 				{
+					if(Thread.currentThread().isInterrupted())
+						throw new CancellationException("Parsing was interrupted");
+
 					states.add(new State());
 
-					if(states.get(i).size() == 0)
+					if(!states.get(i).reached())
 					{
 						breaked = true;
 						break;
 					}
 
-					buildState(tokens.get(i), states, i, tree);
+					buildState(tokens.get(i), i+1 < tokens.size() ? tokens.get(i+1) : null,
+							states, i, tree);
 					breaked = false;
 				}
 
@@ -658,143 +1688,222 @@ public class Chunk
 			sentRule.rhs = new TokenTypes[] {TokenTypes.PHRASE};
 		}
 
+		/**
+		 * Rebuilds the derivation bottom-up without recursion. The frames
+		 * are kept on an explicit stack and the values in a deque, so deep
+		 * derivations (e.g. long lists) can't overflow the Java stack.
+		 */
 		private AST buildTree(List<Token> tokens, Tree tree,
 				Tuple<StateItem,Integer> root)
 		{
-			List stack = new ArrayList();
-			buildTree_r(stack, tokens, tokens.size()-1, tree, root);
-			return (AST)stack.get(0);
-		}
-
-		private int buildTree_r(List stack, List<Token> tokens,
-				int tokpos, Tree tree, Tuple<StateItem,Integer> root)
-		{
-			Rule rule = root.fst().rule;
-			int pos = root.fst().position;
-			int parent = root.fst().parent;
-			int state = root.snd();
+			// Leftmost value first, just like 'stack' in the Python code
+			ArrayDeque<AST> stack = new ArrayDeque<AST>();
+			ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
 
-//			System.out.println(rule);
+			int tokpos = tokens.size()-1;
+			frames.push(new Frame(root.fst(), root.snd()));
 
-			while(pos > 0)
+			while(!frames.isEmpty())
 			{
-				Tuple<StateItem,Integer> want =
-						new Tuple<StateItem, Integer>(new StateItem(rule, pos, parent), state);
+				Frame frame = frames.peek();
 
-				if(!tree.hasKey(want))
-				{
-					pos = pos - 1;
-					state = state -1;
-					stack.add(0, tokens.get(tokpos));
-					tokpos = tokpos - 1;
-				}
-				else
+				if(frame.pos > 0)
 				{
-					List<Tuple<StateItem,Integer>> children = tree.get(want);
-					Tuple<StateItem,Integer> child = null;
+					List<Tuple<StateItem,Integer>> children =
+							tree.get(frame.rule, frame.pos, frame.parent, frame.state);
 
-					if(children.size() > 1)
-						child = ambiguity(children);
+					if(children == null)
+					{
+						frame.pos--;
+						frame.state--;
+						stack.addFirst(new AST(tokens.get(tokpos)));
+						tokpos--;
+					}
 					else
-						child = children.get(0);
+					{
+						Tuple<StateItem,Integer> child = null;
+
+						if(children.size() > 1)
+							child = ambiguity(children);
+						else
+							child = children.get(0);
 
-					tokpos = buildTree_r(stack, tokens, tokpos, tree, child);
+						if(child == null)
+							return null;
 
-					pos = pos - 1;
-					state = child.fst().getParent();
+						frame.pos--;
+						frame.state = child.fst().getParent();
+						frames.push(new Frame(child.fst(), child.snd()));
+					}
+
+					continue;
 				}
+
+				frames.pop();
+
+				int len = frame.rule.rhs.length;
+				if(args.length < len)
+					args = new AST[len];
+
+				for(int i = 0; i < len; i++)
+					args[i] = stack.removeFirst();
+
+				// Call function here
+				// result = self.rule2func[rule](stack[:len(rhs)])
+				FunctionNames funcName = rule2func.get(frame.rule);
+
+				stack.addFirst(callFunc(funcName, args, len));
 			}
 
-			TokenTypes[] rhs = rule.rhs;
+			Arrays.fill(args, null);
+
+			return stack.peekFirst();
+		}
+
+		/**
+		 * Builds the tree of a derivation from CykParser, i.e. the rule ids
+		 * of each PHRASE in preorder, with the same reduction actions as
+		 * buildTree(). Like buildTree() it keeps its own stack of frames.
+		 */
+		public AST derive(int[] derivation, List<Token> tokens)
+		{
+			// The values of the open rules and of the phrases, leftmost first
+			ArrayList<AST> values = new ArrayList<AST>();
+			ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+			int at = 0, tokpos = 0;
+
+			while(at < derivation.length || !frames.isEmpty())
+			{
+				if(frames.isEmpty())
+					frames.push(new Frame(byId[derivation[at++]]));
+
+				Frame frame = frames.peek();
+
+				if(frame.pos < frame.rule.rhs.length)
+				{
+					if(rules.hasKey(frame.rule.rhs[frame.pos++]))
+						frames.push(new Frame(byId[derivation[at++]]));
+					else
+						values.add(new AST(tokens.get(tokpos++)));
+
+					continue;
+				}
 
-			int len = rhs.length;
-			List subList = new ArrayList();
+				frames.pop();
 
-			for(int i = 0; i < len; i++)
-				subList.add(i, stack.remove(0));
+				// Every symbol of the rule left exactly one value
+				int len = frame.rule.rhs.length;
+				if(args.length < len)
+					args = new AST[len];
 
-			// Call function here
-			// result = self.rule2func[rule](stack[:len(rhs)])
-			FunctionNames funcName = rule2func.get(rule);
+				for(int i = len-1; i >= 0; i--)
+					args[i] = values.remove(values.size()-1);
 
-			Object result = callFunc(funcName, subList);
+				values.add(callFunc(rule2func.get(frame.rule), args, len));
+			}
 
-			stack.add(0, result);
+			Arrays.fill(args, null);
 
-			return tokpos;
+			AST[] sent = values.toArray(new AST[values.size()]);
+			return callFunc(FunctionNames.p_sent_0, sent, sent.length);
 		}
 
+		/**
+		 * Picks the child whose function has the highest priority. This is
+		 * what sorting the children by descending index and taking the
+		 * first with the highest priority in resolve() came down to: the
+		 * last child among those with the highest priority. With
+		 * specializeForNPs(), null where the full grammar's pick can't be
+		 * told.
+		 */
 		private Tuple<StateItem,Integer> ambiguity(List<Tuple<StateItem,Integer>> children)
 		{
-			List<Tuple<Integer,FunctionNames>> sortlist =
-						new ArrayList<Tuple<Integer,FunctionNames>>();
-			Hashtable<FunctionNames,Integer> name2index =
-					new Hashtable<FunctionNames,Integer>();
+			int best = 0, maxPrio = -1;
 
-			for(int i = 0; i < children.size(); i++)
+			for(int i = children.size()-1; i >= 0; i--)
 			{
 				Rule rule = children.get(i).fst().getRule();
+				int prio = priority[rule.id];
 
-				FunctionNames name = rule2func.get(rule);
-				sortlist.add(new Tuple<Integer, FunctionNames>(i, name));
-				name2index.put(name, i);
+				if(prio < 0)
+					throw new IllegalStateException("No priority for " + rule);
+
+				if(prio > maxPrio)
+				{
+					maxPrio = prio;
+					best = i;
+				}
 			}
 
-			sort(sortlist);
-			List<FunctionNames> list = new ArrayList<FunctionNames>();
-			for(Tuple<Integer,FunctionNames> t : sortlist)
-				list.add(t.snd());
+			if(!inlined.isEmpty() && !orderFree(children, best, maxPrio))
+				return null;
+
+			if(profile != null)
+			{
+				int winner = children.get(best).fst().getRule().id;
+
+				for(int i = 0; i < children.size(); i++)
+					if(i != best)
+						profile.resolved(winner, children.get(i).fst().getRule().id);
+			}
 
-			return children.get(name2index.get(resolve(list)));
+			return children.get(best);
 		}
 
-		private void sort(List<Tuple<Integer,FunctionNames>> list)
+		/**
+		 * With specializeForNPs(), whether the full grammar would pick a
+		 * child of the same tokens. The children are the same, except that
+		 * the inlined PHRASEs are in place of the PHRASE over VC or INFP and
+		 * complete earlier. So where one of them ties with a child of other
+		 * tokens the last one may not be the full grammar's. Between those
+		 * of the same tokens it doesn't matter: they are PHRASEs of the
+		 * priority of VC or INFP, which no PHRASE with an NP has.
+		 */
+		private boolean orderFree(List<Tuple<StateItem,Integer>> children, int best, int maxPrio)
 		{
-			// TODO: Should this be ascending or descending order
-			//       Atm it is descending
-			for(int i = 0; i < list.size(); i++)
+			StateItem winner = children.get(best).fst();
+
+			for(int i = 0; i < children.size(); i++)
 			{
-				for(int j = 0; j < list.size()-1; j++)
-				{
-					if(list.get(j).fst() < list.get(j+1).fst())
-					{
-						Tuple<Integer,FunctionNames> tmp = list.remove(j);
-						list.add(j+1, tmp);
-					}
-				}
+				StateItem item = children.get(i).fst();
+
+				if(i == best || priority[item.getRule().id] < maxPrio || item.equals(winner))
+					continue;
+
+				if(item.getParent() != winner.getParent() &&
+						(inlined.containsKey(item.getRule()) || inlined.containsKey(winner.getRule())))
+					return false;
 			}
+
+			return true;
 		}
 
-		private FunctionNames resolve(List<FunctionNames> list)
+		/**
+		 * The priority of a function is the number at the end of its name
+		 */
+		private int priority(FunctionNames name)
 		{
-			int maxPrio = -1;
-			FunctionNames maxString = null;
-
-			for(FunctionNames name : list)
-			{
-				String[] tmp = name.toString().split("_");
-				int prio = Integer.parseInt(tmp[tmp.length-1]);
-
-				if(prio > maxPrio)
-				{
-					maxPrio = prio;
-					maxString = name;
-				}
-			}
+			if(name == FunctionNames.START)
+				return -1;
 
-			if(maxString != null)
-				return maxString;
-			else
-				return list.get(0);
+			String[] tmp = name.toString().split("_");
+			return Integer.parseInt(tmp[tmp.length-1]);
 		}
 
-		private void buildState(Token token, List<State> states, int i, Tree tree)
+		/**
+		 * Builds state 'i', 'next' is the token after 'token', null at the
+		 * end. Items that can't go on with the token they are at, see
+		 * lookahead(), are left out of the states.
+		 */
+		private void buildState(Token token, Token next, List<State> states, int i, Tree tree)
 		{
 			Hashtable<TokenTypes,Tuple<StateItem,Integer>> needsCompletion =
 					new Hashtable<TokenTypes,Tuple<StateItem,Integer>>();
 			State state = states.get(i);
 			HashSet<TokenTypes> predicted = new HashSet<TokenTypes>();
 
+			inBeam.clear();
+
 			int nr = 100000;
 			boolean ns = false;
 
@@ -822,6 +1931,14 @@ public class Chunk
 					if(nr == i)
 						System.out.println("STAGE 0");
 
+					// Empty rules are kept for needsCompletion, a nonterminal
+					// has only one
+					if(rhs.length > 0 && !admit(item))
+						continue;
+
+					if(profile != null)
+						profile.completed(rule.id);
+
 					if(rhs.length == 0)
 						needsCompletion.put(lhs, new Tuple<StateItem,Integer>(item, i));
 
@@ -852,6 +1969,9 @@ public class Chunk
 								System.out.println("STAGE 2");
 							}
 
+							if(!viable(prule, ppos+1, token))
+								continue;
+
 							StateItem newState = new StateItem(prule, ppos+1, pparent);
 
 							if(!state.contains(newState))
@@ -888,13 +2008,16 @@ public class Chunk
 						StateItem newState = new StateItem(rule, pos+1, parent);
 						Tuple<StateItem,Integer> olditem_i = needsCompletion.get(nextSym);
 
-						if(!state.contains(newState))
+						if(viable(rule, pos+1, token))
 						{
-							state.append(newState);
-							tree.addNewKey(newState, i);
-						}
+							if(!state.contains(newState))
+							{
+								state.append(newState);
+								tree.addNewKey(newState, i);
+							}
 
-						tree.append(newState, i, olditem_i.fst(), olditem_i.snd());
+							tree.append(newState, i, olditem_i.fst(), olditem_i.snd());
+						}
 					}
 
 					if(predicted.contains(nextSym))
@@ -906,80 +2029,156 @@ public class Chunk
 
 					predicted.add(nextSym);
 
-					TokenTypes ttype = token.type;
-
-					// TODO: Make sure this is correct
-//					if(!ttype.equals(_EOF) /*&& !ttype.equals("None")*/)
-					if(ttype != TokenTypes.EOF)
+					for(Rule prule : predictions[nextSym.ordinal()][token.type.ordinal()])
 					{
-						if(nr == i)
-							System.out.println("STAGE 6");
+						if(!viable(prule, 0, token))
+							continue;
 
-						for(Rule prule : rules.get(nextSym))
-						{
-							if(nr == i)
-								System.out.println("STAGE 7");
+						state.append(new StateItem(prule, 0, i));
+
+						if(profile != null)
+							profile.predicted(prule.id);
+					}
+				}
+				else if(token.type.equals(nextSym))
+				{
+					if(nr == i)
+						System.out.println("STAGE 12");
+					states.get(i+1).reach();
 
-							StateItem newState = new StateItem(prule, 0, i);
+					if(next == null || viable(rule, pos+1, next))
+						states.get(i+1).append(new StateItem(rule, pos+1, parent));
 
-							TokenTypes[] prhs = prule.rhs;
+					if(profile != null)
+						profile.scanned(rule.id);
+				}
+			}
 
-							if(prhs.length == 0)
-							{
-								if(nr == i)
-									System.out.println("STAGE 8");
+			if(profile != null)
+			{
+				for(StateItem item : state.items())
+					profile.item(item.getRule().id);
 
-								state.append(newState);
-								continue;
-							}
+				profile.endState();
+			}
 
-							TokenTypes prhs0 = prhs[0];
-							if(!rules.hasKey(prhs0))
-							{
-								if(nr == i)
-									System.out.println("STAGE 9");
+			if(nr == i)
+				System.out.println("");
+		}
 
-								if(prhs0.equals(ttype))
-									state.append(newState);
+		/**
+		 * With a beam, whether a complete item is let through to the
+		 * completer. Complete items of the same lhs and origin are
+		 * derivations of the same span that ambiguity() chooses between
+		 * later, and they all advance the same items of the origin state,
+		 * so leaving some out only drops derivations, never items. Let
+		 * through are the first 'beam' ones and any later one of a higher
+		 * priority than all of those, which could have won.
+		 */
+		private boolean admit(StateItem item)
+		{
+			if(beam <= 0)
+				return true;
 
-								continue;
-							}
+			int id = item.getRule().id;
+			Integer key = item.getParent() * TokenTypes.values().length + item.getRule().lhs.ordinal();
+			int[] group = inBeam.get(key);
 
-							HashSet<TokenTypes> fst = first.get(prhs0);
-							if(!fst.contains(TokenTypes.NONE) && !fst.contains(ttype))
-								continue;
+			if(group == null)
+			{
+				inBeam.put(key, new int[] {1, priority[id]});
+				return true;
+			}
 
-							if(nr == i)
-								System.out.println("STAGE 10");
-							state.append(newState);
-						}
+			if(group[0] < beam || priority[id] > group[1])
+			{
+				group[0]++;
+				group[1] = Math.max(group[1], priority[id]);
+				return true;
+			}
+
+			if(profile != null)
+				profile.beamed(id);
+
+			return false;
+		}
+
+		/**
+		 * The rules to predict for the nonterminal 'nt' when the next token
+		 * is of type 'ttype', in the order they are added to the state.
+		 * Computed once for every pair, into 'predictions'.
+		 */
+		private List<Rule> predictRules(TokenTypes nt, TokenTypes ttype)
+		{
+			List<Rule> predicted = new ArrayList<Rule>();
+
+			// TODO: Make sure this is correct
+//			if(!ttype.equals(_EOF) /*&& !ttype.equals("None")*/)
+			if(ttype != TokenTypes.EOF)
+			{
+				for(Rule prule : rules.get(nt))
+				{
+					TokenTypes[] prhs = prule.rhs;
 
+					if(prhs.length == 0)
+					{
+						predicted.add(prule);
 						continue;
 					}
 
-					for(Rule prule : rules.get(nextSym))
+					TokenTypes prhs0 = prhs[0];
+					if(!rules.hasKey(prhs0))
 					{
-						TokenTypes[] prhs = prule.rhs;
+						if(prhs0.equals(ttype))
+							predicted.add(prule);
 
-						if(prhs.length > 0 && !rules.hasKey(prhs[0]) && ttype != prhs[0])
-							continue;
+						continue;
+					}
 
-						if(nr == i)
-							System.out.println("STAGE 11");
+					HashSet<TokenTypes> fst = first.get(prhs0);
+					if(!fst.contains(TokenTypes.NONE) && !fst.contains(ttype))
+						continue;
 
-						state.append(new StateItem(prule, 0, i));
-					}
-				}
-				else if(token.type.equals(nextSym))
-				{
-					if(nr == i)
-						System.out.println("STAGE 12");
-					states.get(i+1).append(new StateItem(rule, pos+1, parent));
+					predicted.add(prule);
 				}
+
+				return predicted;
 			}
 
-			if(nr == i)
-				System.out.println("");
+			for(Rule prule : rules.get(nt))
+			{
+				TokenTypes[] prhs = prule.rhs;
+
+				if(prhs.length > 0 && !rules.hasKey(prhs[0]) && ttype != prhs[0])
+					continue;
+
+				predicted.add(prule);
+			}
+
+			return predicted;
+		}
+
+		/**
+		 * Identifies the grammar, i.e. the rules, their functions and the
+		 * order they are predicted in, so that stale ChunkCache entries are
+		 * never used
+		 */
+		private int fingerprint()
+		{
+			StringBuilder sb = new StringBuilder();
+
+			for(Rule r : byId)
+				sb.append(r).append(" = ").append(rule2func.get(r)).append('\n');
+
+			for(TokenTypes nt : TokenTypes.values())
+			{
+				sb.append(nt).append(':');
+				for(Rule r : rules.get(nt))
+					sb.append(' ').append(r.id);
+				sb.append('\n');
+			}
+
+			return sb.toString().hashCode();
 		}
 
 		private void makeFIRST()
@@ -1029,9 +2228,183 @@ public class Chunk
 			}
 		}
 
-		private Object callFunc(FunctionNames name, List args)
+		/**
+		 * FIRST and FOLLOW sets in the usual sense. FIRST in 'first' is what
+		 * the predictor has always used: the terminals a nonterminal's rules
+		 * start with, plus NONE where a rule starts with a nonterminal that
+		 * can be empty, without looking any further.
+		 *
+		 * SENT is analyzed as PHRASE PHRASE, since it grows to any number of
+		 * PHRASEs during error recovery.
+		 */
+		private void makeFOLLOW()
+		{
+			starts = new Hashtable<TokenTypes,EnumSet<TokenTypes>>();
+			nullable = EnumSet.noneOf(TokenTypes.class);
+			follow = new Hashtable<TokenTypes,EnumSet<TokenTypes>>();
+
+			List<Tuple<TokenTypes,TokenTypes[]>> all = new ArrayList<Tuple<TokenTypes,TokenTypes[]>>();
+			for(Rule[] rulelist : rules.values())
+			{
+				for(Rule r : rulelist)
+				{
+					all.add(new Tuple<TokenTypes,TokenTypes[]>(r.lhs, r != sentRule ? r.rhs :
+						new TokenTypes[] {TokenTypes.PHRASE, TokenTypes.PHRASE}));
+
+					starts.put(r.lhs, EnumSet.noneOf(TokenTypes.class));
+					follow.put(r.lhs, EnumSet.noneOf(TokenTypes.class));
+				}
+			}
+
+			boolean changes = true;
+			while(changes)
+			{
+				changes = false;
+
+				for(Tuple<TokenTypes,TokenTypes[]> r : all)
+				{
+					TokenTypes[] rhs = r.snd();
+
+					int k = 0;
+					while(k < rhs.length && nullable.contains(rhs[k]))
+						k++;
+
+					if(k == rhs.length)
+						changes |= nullable.add(r.fst());
+
+					for(int j = 0; j <= k && j < rhs.length; j++)
+						changes |= starts.get(r.fst()).addAll(starts(rhs[j]));
+				}
+			}
+
+			changes = true;
+			while(changes)
+			{
+				changes = false;
+
+				for(Tuple<TokenTypes,TokenTypes[]> r : all)
+				{
+					TokenTypes[] rhs = r.snd();
+
+					// What can follow the rest of the rule
+					EnumSet<TokenTypes> rest = EnumSet.copyOf(follow.get(r.fst()));
+
+					for(int k = rhs.length-1; k >= 0; k--)
+					{
+						TokenTypes sym = rhs[k];
+
+						if(rules.hasKey(sym))
+							changes |= follow.get(sym).addAll(rest);
+
+						if(!nullable.contains(sym))
+							rest.clear();
+						rest.addAll(starts(sym));
+					}
+				}
+			}
+		}
+
+		/**
+		 * The terminals an NP can start and end with. Only the NP rules
+		 * build NP nodes, so an NP in a parse covers tokens from one of
+		 * npFirst to one of npLast, unless NP can be empty, in which case
+		 * every terminal is included.
+		 */
+		private void makeNPBounds()
+		{
+			if(nullable.contains(TokenTypes.NP))
+			{
+				npFirst = EnumSet.allOf(TokenTypes.class);
+				npLast = EnumSet.allOf(TokenTypes.class);
+				return;
+			}
+
+			npFirst = EnumSet.copyOf(starts.get(TokenTypes.NP));
+
+			// Same as the starts in makeFOLLOW(), with the rules reversed
+			Hashtable<TokenTypes,EnumSet<TokenTypes>> ends =
+					new Hashtable<TokenTypes,EnumSet<TokenTypes>>();
+			for(TokenTypes nt : starts.keySet())
+				ends.put(nt, EnumSet.noneOf(TokenTypes.class));
+
+			boolean changes = true;
+			while(changes)
+			{
+				changes = false;
+
+				for(Rule[] rulelist : rules.values())
+				{
+					for(Rule r : rulelist)
+					{
+						for(int k = r.rhs.length-1; k >= 0; k--)
+						{
+							TokenTypes sym = r.rhs[k];
+
+							changes |= ends.get(r.lhs).addAll(
+									rules.hasKey(sym) ? ends.get(sym) : EnumSet.of(sym));
+
+							if(!nullable.contains(sym))
+								break;
+						}
+					}
+				}
+			}
+
+			npLast = ends.get(TokenTypes.NP);
+		}
+
+		private EnumSet<TokenTypes> starts(TokenTypes sym)
+		{
+			return rules.hasKey(sym) ? starts.get(sym) : EnumSet.of(sym);
+		}
+
+		/**
+		 * Whether an item at 'pos' in the rule can go on when the next
+		 * token is of type 't': by scanning it, by predicting a rule that
+		 * starts with it or by completing the rule if 't' can follow it. An
+		 * item that can't won't ever be completed, and neither will anything
+		 * it predicts, so it is left out of the state.
+		 */
+		private boolean canGoOn(TokenTypes lhs, TokenTypes[] rhs, int pos, TokenTypes t)
+		{
+			for(int k = pos; k < rhs.length; k++)
+			{
+				if(!rules.hasKey(rhs[k]))
+					return rhs[k] == t;
+
+				if(starts.get(rhs[k]).contains(t))
+					return true;
+
+				if(!nullable.contains(rhs[k]))
+					return false;
+			}
+
+			return follow.get(lhs).contains(t);
+		}
+
+		private boolean viable(Rule rule, int pos, Token token)
+		{
+			// A complete SENT item can still go on with a PHRASE, if the
+			// rule grows after an error, see updateSentRule()
+			boolean viable = rule == sentRule ?
+					canGoOn(rule.lhs, rule.rhs, 0, token.type) || follow.get(rule.lhs).contains(token.type) :
+					lookahead[rule.id][pos].contains(token.type);
+
+			if(!viable && profile != null)
+				profile.pruned(rule.id);
+
+			return viable;
+		}
+
+		/**
+		 * Runs the reduction action of a rule. 'args' holds the values of
+		 * the rule's RHS, terminals as leaves. The children of the new node
+		 * are collected in 'kids' which is reused between calls, so the
+		 * only allocations are the node and its child array.
+		 */
+		private AST callFunc(FunctionNames name, AST[] args, int argc)
 		{
-			List<Object> kids = new ArrayList<Object>();
+			Kids kids = this.kids.clear();
 
 			switch(name)
 			{
@@ -1040,34 +2413,29 @@ public class Chunk
 				// The code above is from the basic GenericParser
 				case p_sent_0:
 					// return AST(type=Token(type="sent"), kids=args)
-					return new AST(new Token(TokenTypes.SENT), args);
+					for(int i = 0; i < argc; i++)
+						kids.add(args[i]);
+					return kids.build(TokenTypes.SENT);
 				case p_S_base1_20:
 				case p_S_base2_10:
-					return new AST(new Token(TokenTypes.NONE), kids);
+				case p_Q_0_20:
+					return kids.build(TokenTypes.NONE);
 				case p_S_term_30:
-					AST tmp = new AST(args.get(0));
-					kids.add(tmp);
-					kids.addAll(((AST)args.get(1)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
 				case p_S_nonterm_30:
 				case p_S_nonterm1_30:
 				case p_S_nonterm2_30:
-					kids.add(args.get(0));
-					kids.addAll(((AST)args.get(1)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
-				case p_Q_0_20:
-					return new AST(new Token(TokenTypes.NONE));
+				case p_np_com_1_200:
+				case p_np_rest_180:
+				case p_ap_min_sing_cont_130:
+					// return AST(type=Token(type="list"), kids=[args[0]] + args[1]._kids)
+					return kids.add(args[0]).addKids(args[1]).build(TokenTypes.NONE);
 				case p_Q_1_term_30:
-					kids.add(new AST(args.get(0)));
-					return new AST(new Token(TokenTypes.NONE), kids);
 				case p_Q_1_nonterm_30:
-					kids.add(args.get(0));
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.add(args[0]).build(TokenTypes.NONE);
 				case p_default_10:
 				case p_det_90:
 				case p_det_poss_pron_term_90:
 				case p_adj_sing_plur_100:
-					return new AST(args.get(0));
 				case p_phrase_2a_30:
 				case p_phrase_2a_40:
 				case p_phrase_2b_40:
@@ -1081,195 +2449,145 @@ public class Chunk
 				case p_ap2_150:
 				case p_conj_del_minq_160:
 				case p_np_com_210:
-					return args.get(0);
+					return args[0];
 				case p_advp_term_90:
-					kids.add(new AST(args.get(0)));
-					return new AST(new Token(TokenTypes.ADVP), kids);
+					return kids.add(args[0]).build(TokenTypes.ADVP);
 				case p_ap_min_sing_plur_110:
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.add(args.get(1));
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).add(args[1]).build(TokenTypes.NONE);
 				case p_ap_min_120:
-					kids.addAll(((AST)args.get(0)).kids);
-					return new AST(new Token(TokenTypes.APMIN), kids);
-				case p_ap_min_sing_cont_130:
-					kids.add(new AST(args.get(0)));
-					kids.addAll(((AST)args.get(1)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).build(TokenTypes.APMIN);
 				case p_ap_max_150:
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.addAll(((AST)args.get(2)).kids);
-					kids.addAll(((AST)args.get(3)).kids);
-					return new AST(new Token(TokenTypes.APMAX), kids);
+					return kids.addKids(args[0]).addKids(args[1]).addKids(args[2])
+							.addKids(args[3]).build(TokenTypes.APMAX);
 				case p_prop_comp_noun_cont_170:
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.add(new AST(args.get(2)));
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).addKids(args[1]).add(args[2])
+							.build(TokenTypes.NONE);
 				case p_comp_noun_cont_170:
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.add(new AST(args.get(1)));
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).add(args[1]).build(TokenTypes.NONE);
 				case p_siffer_170:
 					// return AST(type=Token(type=TokenTypes.NUMP), kids=args[0]._kids + [AST(type=args[1])] + args[2]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.add(new AST(args.get(1)));
-					kids.addAll(((AST)args.get(2)).kids);
-					return new AST(new Token(TokenTypes.NUMP), kids);
+					return kids.addKids(args[0]).add(args[1]).addKids(args[2])
+							.build(TokenTypes.NUMP);
 				case p_np1_180:
-					// return AST(type=Token(type=TokenTypes.NP), kids=args[0]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					return new AST(new Token(TokenTypes.NP), kids);
-				case p_np_rest_180:
-					// return AST(type=Token(type="list"), kids=[args[0]] + args[1]._kids)
-					kids.add(args.get(0));
-					kids.addAll(((AST)args.get(1)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
 				case p_np2_190:
+				case p_np3_210:
 					// return AST(type=Token(type=TokenTypes.NP), kids=args[0]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					return new AST(new Token(TokenTypes.NP), kids);
+					return kids.addKids(args[0]).build(TokenTypes.NP);
 				case p_np_sif_190:
 					// return AST(type=Token(type="list"), kids=args[0]._kids + args[1]._kids + [args[2]])
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.add(args.get(2));
-					return new AST(new Token(TokenTypes.NONE), kids);
-				case p_np_com_1_200:
-					// return AST(type=Token(type="list"), kids=[AST(type=args[0])] + args[1]._kids)
-					kids.add(new AST(args.get(0)));
-					kids.addAll(((AST)args.get(1)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).addKids(args[1]).add(args[2])
+							.build(TokenTypes.NONE);
 				case p_np_com_2_200:
 					// return AST(type=Token(type="list"), kids=args[0]._kids +
 					//		[AST(type=args[1])] + args[2]._kids + args[3]._kids +
 					//		args[4]._kids + args[5]._kids + args[6]._kids +
 					//		[AST(type=args[7])] + args[8]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.add(new AST(args.get(1)));
-					kids.addAll(((AST)args.get(2)).kids);
-					kids.addAll(((AST)args.get(3)).kids);
-					kids.addAll(((AST)args.get(4)).kids);
-					kids.addAll(((AST)args.get(5)).kids);
-					kids.addAll(((AST)args.get(6)).kids);
-					kids.add(new AST(args.get(7)));
-					kids.addAll(((AST)args.get(8)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).add(args[1]).addKids(args[2])
+							.addKids(args[3]).addKids(args[4]).addKids(args[5])
+							.addKids(args[6]).add(args[7]).addKids(args[8])
+							.build(TokenTypes.NONE);
 				case p_np_com_3_200:
 					// return AST(type=Token(type="list"), kids=args[0]._kids +
 					//		args[1]._kids + args[2]._kids + args[3]._kids +
 					//		args[4]._kids + args[5]._kids + args[6]._kids +
 					//		[AST(type=args[7])] + args[8]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.addAll(((AST)args.get(2)).kids);
-					kids.addAll(((AST)args.get(3)).kids);
-					kids.addAll(((AST)args.get(4)).kids);
-					kids.addAll(((AST)args.get(5)).kids);
-					kids.addAll(((AST)args.get(6)).kids);
-					kids.add(new AST(args.get(7)));
-					kids.addAll(((AST)args.get(8)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
-				case p_np3_210:
-					// return AST(type=Token(type=TokenTypes.NP), kids=args[0]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					return new AST(new Token(TokenTypes.NP), kids);
+					return kids.addKids(args[0]).addKids(args[1]).addKids(args[2])
+							.addKids(args[3]).addKids(args[4]).addKids(args[5])
+							.addKids(args[6]).add(args[7]).addKids(args[8])
+							.build(TokenTypes.NONE);
 				case p_np_prop_210:
 					// return AST(type=Token(type="list"), kids=args[0]._kids +
 					//		args[1]._kids + args[2]._kids + [AST(type=args[3])] +
 					//		args[4]._kids)
-					kids.addAll(((AST)args.get(0)).kids);
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.addAll(((AST)args.get(2)).kids);
-					kids.add(new AST(args.get(3)));
-					kids.addAll(((AST)args.get(4)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).addKids(args[1]).addKids(args[2])
+							.add(args[3]).addKids(args[4]).build(TokenTypes.NONE);
 				case p_nppc_210:
 					// return AST(type=Token(type="list"), kids=[AST(type=args[0])] +
 					//		args[1]._kids + args[2]._kids + [AST(type=args[3])] +
 					//		args[4]._kids)
-					kids.add(new AST(args.get(0)));
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.addAll(((AST)args.get(2)).kids);
-					kids.add(new AST(args.get(3)));
-					kids.addAll(((AST)args.get(4)).kids);
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.add(args[0]).addKids(args[1]).addKids(args[2])
+							.add(args[3]).addKids(args[4]).build(TokenTypes.NONE);
 				case p_np_comp_210:
 					// return AST(type=Token(type="list"), kids=args[0]._kids +
 					//		args[1]._kids + [AST(type=args[2])] + args[3]._kids +
 					//		[AST(type=args[4])] + args[5]._kids + args[6]._kids +
 					//		args[7]._kids + [AST(type=args[8])] + args[9]._kids)
-					kids.add(new AST(args.get(0)));
-					kids.add(new AST(args.get(1)));
-					kids.addAll(((AST)args.get(2)).kids);
-					kids.add(new AST(args.get(3)));
-					kids.addAll(((AST)args.get(4)).kids);
-					kids.add(new AST(args.get(5)));
-					kids.add(new AST(args.get(6)));
-					kids.add(new AST(args.get(7)));
-					kids.addAll(((AST)args.get(8)).kids);
-					kids.add(new AST(args.get(9)));
-					return new AST(new Token(TokenTypes.NONE), kids);
+					return kids.addKids(args[0]).addKids(args[1]).add(args[2])
+							.addKids(args[3]).add(args[4]).addKids(args[5])
+							.addKids(args[6]).addKids(args[7]).add(args[8])
+							.addKids(args[9]).build(TokenTypes.NONE);
 				case p_pp1_220:
+				case p_pp2_230:
 					// return AST(type=Token(type=TokenTypes.PP), kids=[AST(type=args[0]), args[1]])
-					kids.add(new AST(args.get(0)));
-					kids.add(args.get(1));
-					return new AST(new Token(TokenTypes.PP), kids);
+					return kids.add(args[0]).add(args[1]).build(TokenTypes.PP);
 				case p_vc_term_220:
 					// return AST(type=Token(type=TokenTypes.VC) , kids=[AST(type=args[0])])
-					kids.add(new AST(args.get(0)));
-					return new AST(new Token(TokenTypes.VC), kids);
-				case p_pp2_230:
-					// return AST(type=Token(type=TokenTypes.PP), kids=[AST(type=args[0]), args[1]])
-					kids.add(new AST(args.get(0)));
-					kids.add(args.get(1));
-					return new AST(new Token(TokenTypes.PP), kids);
+					return kids.add(args[0]).build(TokenTypes.VC);
 				case p_vc_term_list_230:
 					// return AST(type=Token(type=TokenTypes.VC) , kids=[AST(type=args[0])] + args[1]._kids)
-					kids.add(new AST(args.get(0)));
-					kids.addAll(((AST)args.get(1)).kids);
-					return new AST(new Token(TokenTypes.VC), kids);
+					return kids.add(args[0]).addKids(args[1]).build(TokenTypes.VC);
 				case p_pp_mellan_240:
-					// return AST(type=Token(type=TokenTypes.PP), kids=[AST(type=args[0]),
-					//		args[1], AST(type=args[2]), args[3]])
-					kids.add(new AST(args.get(0)));
-					kids.add(args.get(1));
-					kids.add(new AST(args.get(2)));
-					kids.add(args.get(3));
-					return new AST(new Token(TokenTypes.PP), kids);
 				case p_pp_konj_240:
 					// return AST(type=Token(type=TokenTypes.PP), kids=[AST(type=args[0]),
-					//		AST(type=args[1]), AST(type=args[2]), args[3]])
-					kids.add(new AST(args.get(0)));
-					kids.add(new AST(args.get(1)));
-					kids.add(new AST(args.get(2)));
-					kids.add(args.get(3));
-					return new AST(new Token(TokenTypes.PP), kids);
+					//		args[1], AST(type=args[2]), args[3]])
+					return kids.add(args[0]).add(args[1]).add(args[2]).add(args[3])
+							.build(TokenTypes.PP);
 				case p_vc_term_list_sv_240:
 					// return AST(type=Token(type=TokenTypes.VC), kids=[AST(type=args[0])] +
 					//		args[1]._kids + [AST(type=args[2])])
-					kids.add(new AST(args.get(0)));
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.add(new AST(args.get(2)));
-					return new AST(new Token(TokenTypes.VC), kids);
+					return kids.add(args[0]).addKids(args[1]).add(args[2])
+							.build(TokenTypes.VC);
 				case p_infp_250:
 					// return AST(type=Token(type=TokenTypes.INFP), kids=[AST(type=args[0])] +
 					//		args[1]._kids + [AST(type=args[2])] + args[3]._kids)
-					kids.add(new AST(args.get(0)));
-					kids.addAll(((AST)args.get(1)).kids);
-					kids.add(new AST(args.get(2)));
-					kids.addAll(((AST)args.get(3)).kids);
-					return new AST(new Token(TokenTypes.INFP), kids);
+					return kids.add(args[0]).addKids(args[1]).add(args[2])
+							.addKids(args[3]).build(TokenTypes.INFP);
 
 				// This is the function represented as a lambda expression
 				// in the augment() function
 				case START:
-					return args.get(0);
+					return args[0];
 			}
 
 			// No function match
-			return null;
+			return kids.build(TokenTypes.NONE);
+		}
+
+		/**
+		 * Collects the children of the node being built by callFunc()
+		 */
+		private class Kids
+		{
+			private AST[] buf = new AST[32];
+			private int size = 0;
+
+			public Kids clear()
+			{
+				size = 0;
+				return this;
+			}
+
+			public Kids add(AST kid)
+			{
+				if(size == buf.length)
+					buf = Arrays.copyOf(buf, size*2);
+
+				buf[size++] = kid;
+				return this;
+			}
+
+			public Kids addKids(AST node)
+			{
+				for(AST kid : node.kids)
+					add(kid);
+
+				return this;
+			}
+
+			public AST build(TokenTypes kind)
+			{
+				return new AST(kind, Arrays.copyOf(buf, size));
+			}
 		}
 
 		private void collectRules()
@@ -1817,62 +3135,69 @@ public class Chunk
 			rules.put(TokenTypes.VC, new Rule[] {r1, r2, r3, r4, r5, r6});
 		}
 
+		/**
+		 * The children of each item, by the state it is in. Rebuilding a
+		 * state after an error gives its items new, empty lists.
+		 */
 		private class Tree
 		{
-			private Hashtable<Tuple<StateItem,Integer>,List<Tuple<StateItem,Integer>>> tree = null;
+			private List<HashMap<StateItem,List<Tuple<StateItem,Integer>>>> tree = null;
+			// Reused by get(Rule,int,int,int)
+			private StateItem probe = new StateItem(null, 0, 0);
 
 			public Tree()
 			{
-				tree = new Hashtable<Tuple<StateItem,Integer>,List<Tuple<StateItem,Integer>>>();
+				tree = new ArrayList<HashMap<StateItem,List<Tuple<StateItem,Integer>>>>();
 			}
 
 			public boolean hasKey(Tuple<StateItem,Integer> t)
 			{
-				for(Tuple<StateItem,Integer> key : tree.keySet())
-					if(key.fst().equals(t.fst()) && key.snd().equals(t.snd()))
-						return true;
-
-				return false;
+				return get(t) != null;
 			}
 
 			public void addNewKey(StateItem si, int i)
 			{
-				tree.put(new Tuple<StateItem,Integer>(si, i),
-						new ArrayList<Tuple<StateItem, Integer>>());
+				while(tree.size() <= i)
+					tree.add(new HashMap<StateItem,List<Tuple<StateItem,Integer>>>());
+
+				tree.get(i).put(si, new ArrayList<Tuple<StateItem, Integer>>());
 			}
 
 			public void append(StateItem keyItem, int keyI, StateItem valItem, int valI)
 			{
-				for(Tuple<StateItem,Integer> t : tree.keySet())
-				{
-					if(t.fst().equals(keyItem) && t.snd().equals(keyI))
-					{
-						tree.get(t).add(new Tuple<StateItem,Integer>(valItem, valI));
-						return;
-					}
-				}
+				List<Tuple<StateItem,Integer>> children = get(keyItem, keyI);
+
+				if(children != null)
+					children.add(new Tuple<StateItem,Integer>(valItem, valI));
 			}
 
 			public List<Tuple<StateItem,Integer>> get(Tuple<StateItem,Integer> t)
 			{
-				for(Tuple<StateItem,Integer> key : tree.keySet())
-					if(key.fst().equals(t.fst()) && key.snd().equals(t.snd()))
-						return tree.get(key);
-
-				return null;
+				return get(t.fst(), t.snd());
 			}
 
-			public void remove(int i)
+			/**
+			 * Same as get(Tuple) but without having to allocate a key
+			 */
+			public List<Tuple<StateItem,Integer>> get(Rule rule, int position,
+					int parent, int i)
 			{
-				ArrayList<Tuple<StateItem,Integer>> toRemove =
-						new ArrayList<Tuple<StateItem,Integer>>();
+				probe.rule = rule;
+				probe.position = position;
+				probe.parent = parent;
+
+				return get(probe, i);
+			}
 
-				for(Tuple<StateItem,Integer> t : tree.keySet())
-					if(i == t.snd())
-						toRemove.add(t);
+			private List<Tuple<StateItem,Integer>> get(StateItem si, int i)
+			{
+				return i < tree.size() ? tree.get(i).get(si) : null;
+			}
 
-				for(Tuple<StateItem,Integer> t : toRemove)
-					tree.remove(t);
+			public void remove(int i)
+			{
+				if(i < tree.size())
+					tree.get(i).clear();
 			}
 
 			@Override
@@ -1885,6 +3210,7 @@ public class Chunk
 		private class State
 		{
 			private List<StateItem> items = null;
+			private boolean reached = false;
 
 			public State()
 			{
@@ -1906,6 +3232,20 @@ public class Chunk
 				return items.size();
 			}
 
+			/**
+			 * Marks the state as reached by a scan, which it is even if the
+			 * lookahead left all the scanned items out
+			 */
+			public void reach()
+			{
+				reached = true;
+			}
+
+			public boolean reached()
+			{
+				return reached;
+			}
+
 			public List<StateItem> items()
 			{
 				return items;
@@ -2002,10 +3342,13 @@ public class Chunk
 					return false;
 			}
 
+			/**
+			 * Not by the rule's rhs, since the SENT rule grows
+			 */
 			@Override
 			public int hashCode()
 			{
-				return super.hashCode();
+				return (rule.lhs.ordinal() * 31 + position) * 31 + parent;
 			}
 
 			@Override
@@ -2019,11 +3362,15 @@ public class Chunk
 		{
 			private TokenTypes lhs = null;
 			private TokenTypes[] rhs = null;
+			private int id = 0;
 
 			public Rule(TokenTypes lhs, TokenTypes[] rhs)
 			{
 				this.lhs = lhs;
 				this.rhs = rhs;
+
+				id = ruleList.size();
+				ruleList.add(this);
 			}
 
 			@Override
@@ -2083,6 +3430,11 @@ public class Chunk
 				rules.put(key, rs);
 			}
 
+			public void remove(TokenTypes key)
+			{
+				rules.remove(key);
+			}
+
 			public Rule[] get(TokenTypes key)
 			{
 				Rule[] rs = rules.get(key);
@@ -2123,26 +3475,52 @@ public class Chunk
 		}
 	}
 
-	private class AST
+	/**
+	 * A node in the parse tree. Leaves hold a token, inner nodes the
+	 * type of phrase they are (NONE for the lists that are only used while
+	 * building the tree). Each node knows the range of token positions it
+	 * covers, start inclusive and end exclusive, or -1 if it has no tokens.
+	 */
+	private static class AST
 	{
-		private Object type = null;
-		private List kids = null;
+		private static final AST[] NO_KIDS = new AST[0];
+
+		private TokenTypes kind = null;
+		private Token token = null;
+		private AST[] kids = NO_KIDS;
+		private int start = -1;
+		private int end = -1;
 
-		public AST(Object type)
+		public AST(Token token)
 		{
-			this.type = type;
-			this.kids = new ArrayList<Object>();
+			this.kind = token.type;
+			this.token = token;
+
+			if(token.word != null)
+			{
+				start = token.pos;
+				end = token.pos + 1;
+			}
 		}
 
-		public AST(Object type, List children)
+		public AST(TokenTypes kind, AST[] kids)
 		{
-			this.type = type;
-			this.kids = children;
+			this.kind = kind;
+			this.kids = kids;
+
+			for(AST kid : kids)
+			{
+				if(kid.start < 0)
+					continue;
+
+				start = (start < 0 ? kid.start : Math.min(start, kid.start));
+				end = Math.max(end, kid.end);
+			}
 		}
 
-		public Object get(int i)
+		public AST get(int i)
 		{
-			return kids.get(i);
+			return kids[i];
 		}
 	}
 }
@@ -0,0 +1,408 @@
+package chunker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of chunked segments, see Chunk.setCache(), that can
+ * be shared by runs and by processes on the same machine.
+ *
+ * It is a key-value file that is only appended to. Each record is
+ *
+ *   int length, int CRC32, int key length, key, value
+ *
+ * where length counts everything after itself. The file is memory mapped
+ * for reading and an index from a hash of each key to its record is kept
+ * in memory, built by scanning the file when it is opened and extended
+ * with what other processes have appended whenever a key isn't found.
+ * Records that were only partly written, by a writer that is still at it
+ * or one that died, fail the CRC and end the scan.
+ *
+ * Writers take an exclusive lock on the file 'name.lock', so appends
+ * never interleave. A writer first drops a torn record at the end, which
+ * can only be left by a writer that died since it holds the lock. When the
+ * file grows past its maximum size the writer compacts it: the newest
+ * records, up to half the maximum, are copied to a new file which is
+ * renamed over the old one. The oldest records are evicted, however often
+ * they are hit. Other processes notice the rename by the file's identity
+ * and open the new file. This relies on POSIX rename semantics.
+ *
+ * Thread safe within a process, but use one ChunkCache per file per JVM,
+ * since file locks are held per JVM.
+ */
+public class ChunkCache implements Closeable
+{
+	private static final int MAGIC = 0x4e504331;
+	private static final int HEADER = 8;
+	private static final int RECORD_HEADER = 12;
+	// So that the whole file can be mapped as one buffer
+	private static final long MAX_BYTES = 1L << 30;
+
+	private File file = null;
+	private long maxBytes = 0;
+
+	private RandomAccessFile lockFile = null;
+
+	private RandomAccessFile raf = null;
+	private FileChannel channel = null;
+	private Object fileKey = null;
+	private MappedByteBuffer map = null;
+
+	// The offset of each record by the hash of its key, and where the
+	// scan of the file has got to
+	private Map<Long,Long> index = null;
+	private long end = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long compactions = 0;
+
+	/**
+	 * Opens the cache in 'file', creating it if needed, which is compacted
+	 * when it grows past 'maxBytes'
+	 */
+	public ChunkCache(File file, long maxBytes) throws IOException
+	{
+		if(maxBytes < HEADER || maxBytes > MAX_BYTES)
+			throw new IllegalArgumentException("The size must be between " + HEADER + " and " +
+					MAX_BYTES + " bytes");
+
+		this.file = file.getAbsoluteFile();
+		this.maxBytes = maxBytes;
+
+		lockFile = new RandomAccessFile(new File(this.file.getPath() + ".lock"), "rw");
+
+		FileLock lock = lockFile.getChannel().lock();
+		try
+		{
+			open();
+
+			if(channel.size() < HEADER)
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				header.putInt(MAGIC).putInt(0).flip();
+				channel.write(header, 0);
+				channel.truncate(HEADER);
+			}
+		}
+		finally
+		{
+			lock.release();
+		}
+	}
+
+	/**
+	 * The value of 'key', null if it isn't in the cache
+	 */
+	public synchronized byte[] get(byte[] key)
+	{
+		try
+		{
+			byte[] value = find(key);
+
+			if(value == null)
+			{
+				// Another process may have added it
+				refresh();
+				value = find(key);
+			}
+
+			if(value == null)
+				misses++;
+			else
+				hits++;
+
+			return value;
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Adds a value, replacing any earlier value of the key
+	 */
+	public synchronized void put(byte[] key, byte[] value)
+	{
+		try
+		{
+			FileLock lock = lockFile.getChannel().lock();
+
+			try
+			{
+				refresh();
+
+				// Whatever is left unscanned was torn by a writer that died
+				if(end < channel.size())
+					channel.truncate(end);
+
+				ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + key.length + value.length);
+				record.putInt(record.capacity() - 4).putInt(0).putInt(key.length).put(key).put(value);
+				record.putInt(4, crc(record, 8, record.capacity()));
+				record.flip();
+
+				long at = end;
+				while(record.hasRemaining())
+					channel.write(record, at + record.position());
+
+				index.put(hash(key, 0, key.length), at);
+				end = at + record.capacity();
+
+				if(end > maxBytes)
+					compact();
+			}
+			finally
+			{
+				lock.release();
+			}
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public synchronized int entries()
+	{
+		return index.size();
+	}
+
+	public synchronized long size()
+	{
+		return end;
+	}
+
+	public synchronized long hits()
+	{
+		return hits;
+	}
+
+	public synchronized long misses()
+	{
+		return misses;
+	}
+
+	public synchronized long compactions()
+	{
+		return compactions;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		raf.close();
+		lockFile.close();
+	}
+
+	private void open() throws IOException
+	{
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		map = null;
+
+		index = new HashMap<Long,Long>();
+		end = HEADER;
+
+		if(channel.size() >= HEADER && mapped(HEADER).getInt(0) != MAGIC)
+			throw new IOException(file + " isn't a chunk cache");
+
+		scan();
+	}
+
+	/**
+	 * Opens the file again if it has been compacted by another process,
+	 * and scans what has been appended since the last scan
+	 */
+	private void refresh() throws IOException
+	{
+		Object key = fileKey;
+		try
+		{
+			key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		}
+		catch(NoSuchFileException e)
+		{
+			// Deleted, a compaction would have replaced it at once, so
+			// keep using the file that is open
+		}
+
+		if(key != null && !key.equals(fileKey))
+		{
+			raf.close();
+			open();
+		}
+		else
+			scan();
+	}
+
+	/**
+	 * Indexes the complete records after 'end'
+	 */
+	private void scan() throws IOException
+	{
+		long size = channel.size();
+		if(size <= end)
+			return;
+
+		ByteBuffer buf = mapped(size);
+
+		while(end + RECORD_HEADER <= size)
+		{
+			int at = (int)end;
+			int length = buf.getInt(at);
+
+			if(length < RECORD_HEADER - 4 || end + 4 + length > size ||
+					crc(buf, at + 8, at + 4 + length) != buf.getInt(at + 4))
+				break;
+
+			int keyLength = buf.getInt(at + 8);
+			if(keyLength < 0 || keyLength > length - 8)
+				break;
+
+			index.put(hash(buf, at + RECORD_HEADER, keyLength), end);
+			end += 4 + length;
+		}
+	}
+
+	private byte[] find(byte[] key) throws IOException
+	{
+		Long at = index.get(hash(key, 0, key.length));
+		if(at == null)
+			return null;
+
+		ByteBuffer buf = mapped(at + 4);
+		int length = buf.getInt((int)(long)at);
+		buf = mapped(at + 4 + length);
+
+		int from = (int)(long)at + RECORD_HEADER;
+		if(buf.getInt(from - 4) != key.length)
+			return null;
+
+		// A different key with the same hash
+		for(int i = 0; i < key.length; i++)
+			if(buf.get(from + i) != key[i])
+				return null;
+
+		byte[] value = new byte[length - 8 - key.length];
+		ByteBuffer view = buf.duplicate();
+		view.position(from + key.length);
+		view.get(value);
+
+		return value;
+	}
+
+	/**
+	 * Keeps the newest records of each key, up to half the maximum size, in
+	 * a new file that replaces this one. Called with the lock held.
+	 */
+	private void compact() throws IOException
+	{
+		List<Long> live = new ArrayList<Long>(index.values());
+		Collections.sort(live);
+
+		ByteBuffer buf = mapped(end);
+		long total = HEADER;
+		int first = live.size();
+
+		while(first > 0)
+		{
+			int at = (int)(long)live.get(first - 1);
+			int length = 4 + buf.getInt(at);
+
+			if(total + length > maxBytes / 2)
+				break;
+
+			total += length;
+			first--;
+		}
+
+		File tmp = new File(file.getPath() + ".compact");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+
+		try
+		{
+			FileChannel oc = out.getChannel();
+			oc.truncate(0);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(0).flip();
+			oc.write(header);
+
+			for(int r = first; r < live.size(); r++)
+			{
+				int at = (int)(long)live.get(r);
+				ByteBuffer record = buf.duplicate();
+				record.position(at);
+				record.limit(at + 4 + buf.getInt(at));
+
+				while(record.hasRemaining())
+					oc.write(record);
+			}
+
+			oc.force(true);
+		}
+		finally
+		{
+			out.close();
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		raf.close();
+		open();
+		compactions++;
+	}
+
+	/**
+	 * The file mapped up to at least 'size' bytes
+	 */
+	private MappedByteBuffer mapped(long size) throws IOException
+	{
+		if(map == null || map.capacity() < size)
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(size, channel.size()));
+
+		return map;
+	}
+
+	private static int crc(ByteBuffer buf, int from, int to)
+	{
+		ByteBuffer view = buf.duplicate();
+		view.limit(to);
+		view.position(from);
+
+		CRC32 crc = new CRC32();
+		crc.update(view);
+
+		return (int)crc.getValue();
+	}
+
+	private static long hash(byte[] key, int from, int length)
+	{
+		return hash(ByteBuffer.wrap(key), from, length);
+	}
+
+	/**
+	 * 64 bit FNV-1a, as the fingerprints of IncrementalChunker
+	 */
+	private static long hash(ByteBuffer buf, int from, int length)
+	{
+		long h = 0xcbf29ce484222325L;
+
+		for(int i = from; i < from + length; i++)
+		{
+			h ^= buf.get(i) & 0xff;
+			h *= 0x100000001b3L;
+		}
+
+		return h;
+	}
+}
@@ -0,0 +1,497 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Runs the chunker as a staged pipeline:
+ *
+ *   reader -> tokenizers -> parsers -> writer
+ *
+ * The reader numbers each input line, the tokenizers cut the lines up in
+ * segments and tokenize them, the parsers run the Earley parser and the
+ * writer prints the NPs in input order. The stages are connected by
+ * bounded RingBuffers, each of which has exactly one producer. Every
+ * tokenizer has its own output buffer which all parsers consume from, and
+ * every parser has its own output buffer which the writer consumes from.
+ * The writer puts lines back in order using their sequence numbers. To
+ * bound the lines it has to hold while it waits for a slow one, parsers
+ * leave a buffer alone while its next line is more than the reorder window
+ * ahead of the writer.
+ *
+ * If a stage fails, all buffers are aborted so that the other stages stop
+ * too, and run() throws the error.
+ *
+ * The number of tokenizers and parsers are set separately. The report
+ * written at the end shows how full each buffer got and how often each
+ * side had to wait, which is where to look for the bottleneck: a stage
+ * whose input is full and whose output is empty is the one to give more
+ * threads.
+ */
+public class ChunkPipeline
+{
+	private int tokenizers = 1;
+	private int parsers = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+	private int capacity = 1024;
+	private int batchSize = 32;
+	private int window = 4096;
+
+	private RingBuffer<Line> lines = null;
+	private List<RingBuffer<Line>> tokenized = null;
+	private List<RingBuffer<Line>> parsed = null;
+	// The sequence number of the next line to write
+	private volatile long written = 0;
+
+	// Sampled queue depths, one row per sample
+	private long samples = 0;
+	private long[] depthSums = null;
+
+	public static void main(String[] args) throws Exception
+	{
+		ChunkPipeline cp = new ChunkPipeline();
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--tokenizers"))
+				cp.setTokenizers(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--parsers"))
+				cp.setParsers(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--capacity"))
+				cp.setCapacity(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--batch"))
+				cp.setBatchSize(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--window"))
+				cp.setWindow(Integer.parseInt(args[++i]));
+			else
+				files.add(args[i]);
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+		if(files.isEmpty())
+			cp.run(new InputStreamReader(System.in, "UTF-8"), out);
+
+		for(String file : files)
+			cp.run(new InputStreamReader(new FileInputStream(file), "UTF-8"), out);
+
+		out.flush();
+		System.err.print(cp.report());
+	}
+
+	public void setTokenizers(int tokenizers)
+	{
+		this.tokenizers = Math.max(1, tokenizers);
+	}
+
+	public void setParsers(int parsers)
+	{
+		this.parsers = Math.max(1, parsers);
+	}
+
+	public void setCapacity(int capacity)
+	{
+		this.capacity = Math.max(1, capacity);
+	}
+
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * The number of lines the parsers may get ahead of the writer, give or
+	 * take a batch per parser
+	 */
+	public void setWindow(int window)
+	{
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Chunks everything in 'in' and prints the NPs to 'out', one per line
+	 */
+	public void run(Reader in, final PrintStream out) throws Exception
+	{
+		lines = new RingBuffer<Line>(capacity);
+		tokenized = new ArrayList<RingBuffer<Line>>();
+		parsed = new ArrayList<RingBuffer<Line>>();
+		samples = 0;
+		written = 0;
+		depthSums = new long[1 + tokenizers + parsers];
+
+		List<Stage> stages = new ArrayList<Stage>();
+
+		for(int i = 0; i < tokenizers; i++)
+		{
+			RingBuffer<Line> output = new RingBuffer<Line>(capacity);
+			tokenized.add(output);
+			stages.add(new Tokenizer(output));
+		}
+
+		for(int i = 0; i < parsers; i++)
+		{
+			RingBuffer<Line> output = new RingBuffer<Line>(capacity);
+			parsed.add(output);
+			stages.add(new Parser(output));
+		}
+
+		Writer writer = new Writer(out);
+		stages.add(writer);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for(Stage s : stages)
+		{
+			Thread t = new Thread(s, s.name());
+			t.start();
+			threads.add(t);
+		}
+
+		Thread sampler = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					while(true)
+					{
+						Thread.sleep(10);
+						sample();
+					}
+				}
+				catch(InterruptedException e)
+				{
+				}
+			}
+		}, "pipeline-sampler");
+		sampler.setDaemon(true);
+		sampler.start();
+
+		// The reader runs on the calling thread
+		BufferedReader br = new BufferedReader(in);
+		List<Line> batch = new ArrayList<Line>(batchSize);
+		long seq = 0;
+		String line;
+
+		try
+		{
+			while((line = br.readLine()) != null)
+			{
+				batch.add(new Line(seq++, line));
+
+				if(batch.size() >= batchSize)
+				{
+					lines.put(batch);
+					batch.clear();
+				}
+			}
+
+			lines.put(batch);
+			lines.close();
+		}
+		catch(CancellationException e)
+		{
+			// A stage failed, its error is thrown below
+		}
+		catch(Exception e)
+		{
+			abort();
+			throw e;
+		}
+		finally
+		{
+			br.close();
+
+			for(Thread t : threads)
+				t.join();
+
+			sampler.interrupt();
+		}
+
+		for(Stage s : stages)
+			if(s.error != null && !(s.error instanceof CancellationException))
+				throw new Exception("Pipeline stage " + s.name() + " failed", s.error);
+	}
+
+	/**
+	 * Stops all stages, after one has failed
+	 */
+	private void abort()
+	{
+		lines.abort();
+		for(RingBuffer<Line> rb : tokenized)
+			rb.abort();
+		for(RingBuffer<Line> rb : parsed)
+			rb.abort();
+	}
+
+	private synchronized void sample()
+	{
+		if(lines == null)
+			return;
+
+		int k = 0;
+		depthSums[k++] += lines.size();
+		for(RingBuffer<Line> rb : tokenized)
+			depthSums[k++] += rb.size();
+		for(RingBuffer<Line> rb : parsed)
+			depthSums[k++] += rb.size();
+
+		samples++;
+	}
+
+	/**
+	 * Average and max depth of every buffer in the last run, and how often
+	 * the producer found it full and the consumers found it empty
+	 */
+	public synchronized String report()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-16s %8s %8s %8s %12s %12s%n", "buffer", "capacity",
+				"avgDepth", "maxDepth", "fullWaits", "emptyWaits"));
+
+		int k = 0;
+		report(sb, "read->tok", lines, k++);
+		for(int i = 0; i < tokenized.size(); i++)
+			report(sb, "tok" + i + "->parse", tokenized.get(i), k++);
+		for(int i = 0; i < parsed.size(); i++)
+			report(sb, "parse" + i + "->write", parsed.get(i), k++);
+
+		return sb.toString();
+	}
+
+	private void report(StringBuilder sb, String name, RingBuffer<Line> rb, int k)
+	{
+		double avg = (samples == 0 ? 0 : (double)depthSums[k] / samples);
+
+		sb.append(String.format(Locale.ROOT, "%-16s %8d %8.1f %8d %12d %12d%n", name,
+				rb.capacity(), avg, rb.maxDepth(), rb.producerWaits(), rb.consumerWaits()));
+	}
+
+	/**
+	 * One input line on its way through the pipeline
+	 */
+	private static class Line
+	{
+		private long seq = 0;
+		private String text = null;
+		private Chunk.Segment[] segments = null;
+		private List<String> nps = null;
+
+		public Line(long seq, String text)
+		{
+			this.seq = seq;
+			this.text = text;
+		}
+	}
+
+	private abstract class Stage implements Runnable
+	{
+		private Throwable error = null;
+
+		public abstract String name();
+
+		protected abstract void process() throws Exception;
+
+		public void run()
+		{
+			try
+			{
+				process();
+			}
+			catch(Throwable t)
+			{
+				error = t;
+				abort();
+			}
+		}
+	}
+
+	private class Tokenizer extends Stage
+	{
+		private RingBuffer<Line> output = null;
+
+		public Tokenizer(RingBuffer<Line> output)
+		{
+			this.output = output;
+		}
+
+		public String name()
+		{
+			return "pipeline-tokenizer-" + tokenized.indexOf(output);
+		}
+
+		protected void process() throws Exception
+		{
+			Chunk npc = new Chunk();
+			List<Line> batch = new ArrayList<Line>(batchSize);
+
+			try
+			{
+				while(lines.poll(batch, batchSize) >= 0)
+				{
+					for(Line l : batch)
+					{
+						l.segments = npc.tokenizeLine(l.text);
+						l.text = null;
+					}
+
+					output.put(batch);
+					batch.clear();
+				}
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+	}
+
+	private class Parser extends Stage
+	{
+		private RingBuffer<Line> output = null;
+
+		public Parser(RingBuffer<Line> output)
+		{
+			this.output = output;
+		}
+
+		public String name()
+		{
+			return "pipeline-parser-" + parsed.indexOf(output);
+		}
+
+		protected void process() throws Exception
+		{
+			Chunk npc = new Chunk();
+			List<Line> batch = new ArrayList<Line>(batchSize);
+			int next = 0;
+			int idle = 0;
+
+			try
+			{
+				while(true)
+				{
+					// Take from the tokenizers in turn, but not lines too far
+					// ahead of the writer
+					boolean drained = true;
+					int got = 0;
+
+					for(int i = 0; i < tokenized.size() && got == 0; i++)
+					{
+						RingBuffer<Line> input = tokenized.get((next + i) % tokenized.size());
+						Line first = input.peek();
+
+						if(first == null || first.seq < written + window)
+							got = input.tryPoll(batch, batchSize);
+
+						drained &= input.isDrained();
+					}
+
+					next++;
+
+					if(got == 0)
+					{
+						if(drained)
+							break;
+
+						if(idle == 0)
+							for(RingBuffer<Line> input : tokenized)
+								input.noteEmpty();
+
+						idle = RingBuffer.backoff(idle);
+						continue;
+					}
+
+					idle = 0;
+
+					for(Line l : batch)
+					{
+						l.nps = new ArrayList<String>();
+
+						for(Chunk.Segment seg : l.segments)
+							l.nps.addAll(npc.chunkSegment(seg));
+
+						l.segments = null;
+					}
+
+					output.put(batch);
+					batch.clear();
+				}
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+	}
+
+	private class Writer extends Stage
+	{
+		private PrintStream out = null;
+
+		public Writer(PrintStream out)
+		{
+			this.out = out;
+		}
+
+		public String name()
+		{
+			return "pipeline-writer";
+		}
+
+		protected void process() throws Exception
+		{
+			Map<Long,Line> pending = new HashMap<Long,Line>();
+			List<Line> batch = new ArrayList<Line>(batchSize);
+			long next = 0;
+			int idle = 0;
+
+			while(true)
+			{
+				boolean drained = true;
+				int got = 0;
+
+				for(RingBuffer<Line> input : parsed)
+				{
+					got += input.tryPoll(batch, batchSize);
+					drained &= input.isDrained();
+				}
+
+				if(got == 0)
+				{
+					if(drained)
+						break;
+
+					if(idle == 0)
+						for(RingBuffer<Line> input : parsed)
+							input.noteEmpty();
+
+					idle = RingBuffer.backoff(idle);
+					continue;
+				}
+
+				idle = 0;
+
+				for(Line l : batch)
+					pending.put(l.seq, l);
+				batch.clear();
+
+				Line l;
+				while((l = pending.remove(next)) != null)
+				{
+					for(String np : l.nps)
+						out.println(np);
+
+					next++;
+				}
+
+				written = next;
+			}
+
+			if(!pending.isEmpty())
+				throw new IllegalStateException(pending.size() + " lines never reached the writer in order");
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package chunker;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Flow.Processor which takes tagged sentences ('word/tag' tokens
+ * separated by spaces) and publishes the NPs of each sentence, in order.
+ *
+ * Sentences are only requested from upstream when the subscriber has asked
+ * for results, and never more than 'bufferSize' at a time. A fast producer
+ * therefore can't fill up the heap, it simply isn't asked for more.
+ *
+ * The parsing is done on the given executor, one sentence at a time, by a
+ * Chunk owned by the processor. Cancelling the subscription interrupts the
+ * sentence currently being parsed.
+ *
+ * Only one subscriber is supported.
+ */
+public class ChunkProcessor implements Flow.Processor<String,List<String>>
+{
+	private Chunk npc = new Chunk();
+	private Executor executor = null;
+	private int bufferSize = 0;
+
+	private Flow.Subscription upstream = null;
+	private Flow.Subscriber<? super List<String>> downstream = null;
+
+	// Sentences received but not yet parsed
+	private ArrayDeque<String> buffer = new ArrayDeque<String>();
+	// Results the subscriber has asked for
+	private long demand = 0;
+	// Sentences requested from upstream but not yet parsed
+	private long outstanding = 0;
+
+	private boolean done = false;
+	private Throwable error = null;
+	private volatile boolean cancelled = false;
+	private boolean terminated = false;
+
+	private Thread runner = null;
+	private AtomicInteger wip = new AtomicInteger();
+
+	public ChunkProcessor(Executor executor)
+	{
+		this(executor, 16);
+	}
+
+	public ChunkProcessor(Executor executor, int bufferSize)
+	{
+		this.executor = executor;
+		this.bufferSize = Math.max(1, bufferSize);
+	}
+
+	public void subscribe(Flow.Subscriber<? super List<String>> subscriber)
+	{
+		synchronized(this)
+		{
+			if(downstream != null)
+			{
+				subscriber.onSubscribe(new NoSubscription());
+				subscriber.onError(new IllegalStateException(
+						"ChunkProcessor only supports one subscriber"));
+				return;
+			}
+
+			downstream = subscriber;
+		}
+
+		subscriber.onSubscribe(new ResultSubscription());
+		refill();
+	}
+
+	public void onSubscribe(Flow.Subscription subscription)
+	{
+		synchronized(this)
+		{
+			if(upstream != null || cancelled)
+			{
+				subscription.cancel();
+				return;
+			}
+
+			upstream = subscription;
+		}
+
+		refill();
+	}
+
+	public void onNext(String sentence)
+	{
+		synchronized(this)
+		{
+			buffer.add(sentence);
+		}
+
+		schedule();
+	}
+
+	public void onError(Throwable t)
+	{
+		synchronized(this)
+		{
+			error = t;
+			done = true;
+		}
+
+		schedule();
+	}
+
+	public void onComplete()
+	{
+		synchronized(this)
+		{
+			done = true;
+		}
+
+		schedule();
+	}
+
+	/**
+	 * Asks upstream for more sentences, as long as it doesn't make us
+	 * buffer more than we have demand and room for
+	 */
+	private void refill()
+	{
+		Flow.Subscription s = null;
+		long n = 0;
+
+		synchronized(this)
+		{
+			if(upstream == null || downstream == null || done || cancelled)
+				return;
+
+			n = Math.min(demand, bufferSize) - outstanding;
+
+			if(n <= 0)
+				return;
+
+			outstanding += n;
+			s = upstream;
+		}
+
+		s.request(n);
+	}
+
+	private void schedule()
+	{
+		if(wip.getAndIncrement() == 0)
+		{
+			executor.execute(new Runnable()
+			{
+				public void run()
+				{
+					drain();
+				}
+			});
+		}
+	}
+
+	private void drain()
+	{
+		int missed = 1;
+
+		while(true)
+		{
+			while(true)
+			{
+				String sentence = null;
+
+				synchronized(this)
+				{
+					if(cancelled || terminated)
+					{
+						buffer.clear();
+						break;
+					}
+
+					if(demand == 0 || buffer.isEmpty())
+						break;
+
+					sentence = buffer.poll();
+					demand--;
+					outstanding--;
+					runner = Thread.currentThread();
+				}
+
+				List<String> nps = null;
+
+				try
+				{
+					nps = Arrays.asList(npc.parse_input(new String[] {sentence}));
+				}
+				catch(CancellationException e)
+				{
+					// The subscription was cancelled in the middle of a parse
+				}
+				finally
+				{
+					synchronized(this)
+					{
+						runner = null;
+						Thread.interrupted();
+					}
+				}
+
+				if(nps == null || cancelled)
+					break;
+
+				downstream.onNext(nps);
+				refill();
+			}
+
+			boolean complete = false;
+			Throwable t = null;
+
+			synchronized(this)
+			{
+				if(!cancelled && !terminated && done && buffer.isEmpty())
+				{
+					terminated = true;
+					complete = true;
+					t = error;
+				}
+			}
+
+			if(complete)
+			{
+				if(t != null)
+					downstream.onError(t);
+				else
+					downstream.onComplete();
+			}
+
+			missed = wip.addAndGet(-missed);
+			if(missed == 0)
+				break;
+		}
+	}
+
+	private class ResultSubscription implements Flow.Subscription
+	{
+		public void request(long n)
+		{
+			if(n <= 0)
+			{
+				synchronized(ChunkProcessor.this)
+				{
+					if(terminated || cancelled)
+						return;
+
+					done = true;
+					error = new IllegalArgumentException("Non-positive request: " + n);
+					buffer.clear();
+				}
+
+				cancel(false);
+				schedule();
+				return;
+			}
+
+			synchronized(ChunkProcessor.this)
+			{
+				demand += n;
+				if(demand < 0)
+					demand = Long.MAX_VALUE;
+			}
+
+			refill();
+			schedule();
+		}
+
+		public void cancel()
+		{
+			cancel(true);
+		}
+
+		private void cancel(boolean stopDownstream)
+		{
+			Flow.Subscription s = null;
+
+			synchronized(ChunkProcessor.this)
+			{
+				if(stopDownstream)
+					cancelled = true;
+
+				s = upstream;
+
+				if(runner != null)
+					runner.interrupt();
+			}
+
+			if(s != null)
+				s.cancel();
+		}
+	}
+
+	private static class NoSubscription implements Flow.Subscription
+	{
+		public void request(long n)
+		{
+		}
+
+		public void cancel()
+		{
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch mode chunking on several threads, scheduled by estimated cost.
+ *
+ * Splitting a corpus evenly by line count works badly since the cost of
+ * parsing a segment depends a lot on its length and ambiguity: at the end
+ * of the run a few threads are left with the long lines while the rest
+ * are idle. Instead the input is read in windows of lines, all segments
+ * in the window are tokenized and their cost estimated, and then the
+ * segments are handed out most expensive first. Cheap segments are packed
+ * together into batches of about the same cost so the threads don't spend
+ * their time on hand-offs. The NPs are still printed in input order.
+ */
+public class ChunkScheduler
+{
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int windowLines = 20000;
+	// Batches per thread and window, higher gives better balance but more hand-offs
+	private int batchesPerThread = 16;
+	private SegmentPolicy policy = null;
+
+	private ExecutorService pool = null;
+	private ThreadLocal<Chunk> chunkers = new ThreadLocal<Chunk>()
+	{
+		@Override
+		protected Chunk initialValue()
+		{
+			return new Chunk(policy);
+		}
+	};
+
+	private AtomicLong busyNanos = new AtomicLong();
+	private long wallNanos = 0;
+	private long segmentCount = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		ChunkScheduler cs = new ChunkScheduler();
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--threads"))
+				cs.setThreads(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--window"))
+				cs.setWindowLines(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--adaptive"))
+				cs.setSegmentPolicy(SegmentPolicy.adaptive());
+			else if(args[i].equals("--time-budget-us"))
+				cs.setSegmentPolicy(SegmentPolicy.adaptive().withTimeBudget(
+						Long.parseLong(args[++i]) * 1000));
+			else
+				files.add(args[i]);
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+		try
+		{
+			if(files.isEmpty())
+				cs.run(new InputStreamReader(System.in, "UTF-8"), out);
+
+			for(String f : files)
+				cs.run(new InputStreamReader(new FileInputStream(f), "UTF-8"), out);
+		}
+		finally
+		{
+			cs.shutdown();
+		}
+
+		out.flush();
+		System.err.print(cs.report());
+	}
+
+	public void setThreads(int threads)
+	{
+		this.threads = Math.max(1, threads);
+	}
+
+	public void setWindowLines(int windowLines)
+	{
+		this.windowLines = Math.max(1, windowLines);
+	}
+
+	/**
+	 * Must be set before the first run
+	 */
+	public void setSegmentPolicy(SegmentPolicy policy)
+	{
+		this.policy = policy;
+	}
+
+	/**
+	 * Estimates the relative cost of parsing a segment. The Earley parser
+	 * is roughly quadratic in the length of a segment, and coordination,
+	 * commas and adjective/number sequences are what make the chart grow
+	 * beyond that.
+	 */
+	static double estimateCost(Chunk.Segment segment)
+	{
+		int n = segment.size();
+		int ambiguous = 0;
+
+		for(int i = 0; i < n; i++)
+			ambiguous += SegmentPolicy.ambiguity(segment.type(i));
+
+		return 1.0 + (double)n * n * (1.0 + (double)ambiguous / Math.max(1, n));
+	}
+
+	public void run(Reader in, PrintStream out) throws Exception
+	{
+		if(pool == null)
+			pool = Executors.newFixedThreadPool(threads);
+
+		long start = System.nanoTime();
+		BufferedReader br = new BufferedReader(in);
+		List<String> window = new ArrayList<String>(windowLines);
+		String line;
+
+		while((line = br.readLine()) != null)
+		{
+			window.add(line);
+
+			if(window.size() >= windowLines)
+			{
+				runWindow(window, out);
+				window.clear();
+			}
+		}
+
+		if(!window.isEmpty())
+			runWindow(window, out);
+
+		br.close();
+		wallNanos += System.nanoTime() - start;
+	}
+
+	public void shutdown()
+	{
+		if(pool != null)
+			pool.shutdown();
+	}
+
+	private void runWindow(final List<String> window, PrintStream out) throws Exception
+	{
+		// Tokenize the lines in parallel, in contiguous ranges
+		final Chunk.Segment[][] segments = new Chunk.Segment[window.size()][];
+		List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+		int step = Math.max(1, (window.size() + threads - 1) / threads);
+
+		for(int from = 0; from < window.size(); from += step)
+		{
+			final int f = from, t = Math.min(window.size(), from + step);
+
+			jobs.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					Chunk npc = chunkers.get();
+
+					for(int i = f; i < t; i++)
+						segments[i] = npc.tokenizeLine(window.get(i));
+
+					return null;
+				}
+			});
+		}
+
+		invokeAll(jobs);
+
+		// Flatten and estimate
+		List<Task> tasks = new ArrayList<Task>();
+		double total = 0;
+
+		for(int i = 0; i < segments.length; i++)
+		{
+			for(int j = 0; j < segments[i].length; j++)
+			{
+				Task task = new Task(i, j, segments[i][j]);
+				total += task.cost;
+				tasks.add(task);
+			}
+		}
+
+		segmentCount += tasks.size();
+
+		Collections.sort(tasks, new Comparator<Task>()
+		{
+			public int compare(Task t1, Task t2)
+			{
+				return Double.compare(t2.cost, t1.cost);
+			}
+		});
+
+		// Expensive segments go alone, the cheap ones are packed into
+		// batches of about 'target' cost
+		double target = total / (threads * batchesPerThread);
+		final List<List<Task>> batches = new ArrayList<List<Task>>();
+		List<Task> current = null;
+		double currentCost = 0;
+
+		for(Task task : tasks)
+		{
+			if(task.cost >= target)
+			{
+				batches.add(Collections.singletonList(task));
+				continue;
+			}
+
+			if(current == null || currentCost >= target)
+			{
+				current = new ArrayList<Task>();
+				batches.add(current);
+				currentCost = 0;
+			}
+
+			current.add(task);
+			currentCost += task.cost;
+		}
+
+		// The threads take batches in order, i.e. the most expensive first
+		final List<String>[][] results = newResults(segments);
+		final AtomicInteger next = new AtomicInteger();
+		jobs.clear();
+
+		for(int i = 0; i < threads; i++)
+		{
+			jobs.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					Chunk npc = chunkers.get();
+					long start = System.nanoTime();
+					int b;
+
+					while((b = next.getAndIncrement()) < batches.size())
+						for(Task task : batches.get(b))
+							results[task.line][task.segment] = npc.chunkSegment(task.seg);
+
+					busyNanos.addAndGet(System.nanoTime() - start);
+					return null;
+				}
+			});
+		}
+
+		invokeAll(jobs);
+
+		for(List<String>[] line : results)
+			for(List<String> nps : line)
+				for(String np : nps)
+					out.println(np);
+	}
+
+	// There are no generic array creations, hence the raw List arrays
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static List<String>[][] newResults(Chunk.Segment[][] segments)
+	{
+		List<String>[][] results = new List[segments.length][];
+
+		for(int i = 0; i < segments.length; i++)
+			results[i] = new List[segments[i].length];
+
+		return results;
+	}
+
+	private void invokeAll(List<Callable<Void>> jobs) throws Exception
+	{
+		for(Future<Void> f : pool.invokeAll(jobs))
+		{
+			try
+			{
+				f.get();
+			}
+			catch(ExecutionException e)
+			{
+				throw new Exception("Chunking failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * How close the wall clock time got to the parsing time divided by the
+	 * number of threads
+	 */
+	public String report()
+	{
+		double wall = wallNanos / 1e9;
+		double busy = busyNanos.get() / 1e9;
+
+		return String.format(Locale.ROOT,
+				"segments %d, threads %d, wall %.2fs, parse cpu %.2fs, ideal %.2fs, efficiency %.0f%%%n",
+				segmentCount, threads, wall, busy, busy / threads,
+				wall == 0 ? 0 : 100 * busy / (threads * wall))
+				+ (policy == null ? "" : policy.report());
+	}
+
+	private static class Task
+	{
+		private int line = 0;
+		private int segment = 0;
+		private Chunk.Segment seg = null;
+		private double cost = 0;
+
+		public Task(int line, int segment, Chunk.Segment seg)
+		{
+			this.line = line;
+			this.segment = segment;
+			this.seg = seg;
+			this.cost = estimateCost(seg);
+		}
+	}
+}
@@ -0,0 +1,499 @@
+package chunker;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A standalone chunking service built on the JDK's HTTP server.
+ *
+ * POST tagged text (one sentence of 'word/tag' tokens per line) to /chunk
+ * and the NPs are returned as JSON. Every request gets its own thread
+ * (a virtual thread when the JVM supports it), but the actual parsing is
+ * done by a fixed pool of workers, each with its own Chunk instance since
+ * a Chunk isn't thread safe. Requests that arrive close together are
+ * handed to the workers in batches.
+ *
+ * If the request queue is full the request is rejected with 503 rather
+ * than queued, so a burst can't take the whole service down. So is a
+ * request that hasn't been chunked within the timeout, and the workers
+ * then skip it. Bodies larger than the maximum are rejected with 413
+ * before they are read.
+ *
+ * Latency percentiles and counters are served as JSON on /metrics on a
+ * separate port which is only bound to the loopback interface.
+ */
+public class ChunkServer
+{
+	private int port = 8080;
+	private int metricsPort = 8081;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int maxBatch = 32;
+	private long maxWaitMillis = 2;
+	private int queueSize = 1024;
+	private long timeoutMillis = 30000;
+	private int maxBodyBytes = 1 << 20;
+
+	private BlockingQueue<Request> queue = null;
+	private List<Thread> workerThreads = null;
+	private HttpServer server = null;
+	private HttpServer metricsServer = null;
+	private ExecutorService requestExecutor = null;
+	private volatile boolean running = false;
+
+	private LatencyRecorder latencies = new LatencyRecorder(8192);
+	private AtomicLong accepted = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong failed = new AtomicLong();
+	private AtomicLong timedOut = new AtomicLong();
+	private AtomicLong tooLarge = new AtomicLong();
+	private AtomicLong batches = new AtomicLong();
+
+	public static void main(String[] args) throws IOException
+	{
+		ChunkServer cs = new ChunkServer();
+
+		for(int i = 0; i+1 < args.length; i += 2)
+		{
+			String opt = args[i], val = args[i+1];
+
+			if(opt.equals("--port"))
+				cs.setPort(Integer.parseInt(val));
+			else if(opt.equals("--metrics-port"))
+				cs.setMetricsPort(Integer.parseInt(val));
+			else if(opt.equals("--workers"))
+				cs.setWorkers(Integer.parseInt(val));
+			else if(opt.equals("--max-batch"))
+				cs.setMaxBatch(Integer.parseInt(val));
+			else if(opt.equals("--max-wait-ms"))
+				cs.setMaxWaitMillis(Long.parseLong(val));
+			else if(opt.equals("--queue"))
+				cs.setQueueSize(Integer.parseInt(val));
+			else if(opt.equals("--timeout-ms"))
+				cs.setTimeoutMillis(Long.parseLong(val));
+			else if(opt.equals("--max-body-kb"))
+				cs.setMaxBodyBytes(Integer.parseInt(val) * 1024);
+			else
+				throw new IllegalArgumentException("Unknown option: " + opt);
+		}
+
+		cs.start();
+	}
+
+	public void setPort(int port)
+	{
+		this.port = port;
+	}
+
+	public void setMetricsPort(int metricsPort)
+	{
+		this.metricsPort = metricsPort;
+	}
+
+	public void setWorkers(int workers)
+	{
+		this.workers = Math.max(1, workers);
+	}
+
+	public void setMaxBatch(int maxBatch)
+	{
+		this.maxBatch = Math.max(1, maxBatch);
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis)
+	{
+		this.maxWaitMillis = Math.max(0, maxWaitMillis);
+	}
+
+	public void setQueueSize(int queueSize)
+	{
+		this.queueSize = Math.max(1, queueSize);
+	}
+
+	/**
+	 * How long a request waits to be chunked before it gets a 503
+	 */
+	public void setTimeoutMillis(long timeoutMillis)
+	{
+		this.timeoutMillis = Math.max(1, timeoutMillis);
+	}
+
+	public void setMaxBodyBytes(int maxBodyBytes)
+	{
+		this.maxBodyBytes = Math.max(1, maxBodyBytes);
+	}
+
+	public void start() throws IOException
+	{
+		queue = new ArrayBlockingQueue<Request>(queueSize);
+		running = true;
+
+		workerThreads = new ArrayList<Thread>();
+		for(int i = 0; i < workers; i++)
+		{
+			Thread t = new Thread(new Worker(), "chunk-worker-" + i);
+			t.setDaemon(true);
+			t.start();
+			workerThreads.add(t);
+		}
+
+		requestExecutor = newRequestExecutor();
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/chunk", new ChunkHandler());
+		server.setExecutor(requestExecutor);
+		server.start();
+
+		metricsServer = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), metricsPort), 0);
+		metricsServer.createContext("/metrics", new MetricsHandler());
+		metricsServer.start();
+	}
+
+	public void stop()
+	{
+		running = false;
+
+		if(server != null)
+			server.stop(0);
+		if(metricsServer != null)
+			metricsServer.stop(0);
+		if(requestExecutor != null)
+			requestExecutor.shutdownNow();
+
+		for(Thread t : workerThreads)
+			t.interrupt();
+
+		// Nothing will take these any more
+		List<Request> left = new ArrayList<Request>();
+		queue.drainTo(left);
+		cancel(left);
+	}
+
+	/**
+	 * Answers requests that won't be chunked with 503
+	 */
+	private static void cancel(List<Request> requests)
+	{
+		for(Request r : requests)
+		{
+			r.error = new CancellationException("The server is stopping");
+			r.done.countDown();
+		}
+	}
+
+	/**
+	 * One thread per request. Virtual threads are used if the running JVM
+	 * has them (Java 21+), otherwise plain threads from a cached pool.
+	 */
+	private static ExecutorService newRequestExecutor()
+	{
+		try
+		{
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		}
+		catch(Exception e)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private class Request
+	{
+		private String[] lines = null;
+		private String[] nps = null;
+		private Exception error = null;
+		private CountDownLatch done = new CountDownLatch(1);
+		// Set when the client has been answered with a timeout, the
+		// workers then leave the request alone
+		private volatile boolean abandoned = false;
+
+		public Request(String[] lines)
+		{
+			this.lines = lines;
+		}
+	}
+
+	private class Worker implements Runnable
+	{
+		private Chunk npc = new Chunk();
+
+		public void run()
+		{
+			List<Request> batch = new ArrayList<Request>(maxBatch);
+
+			while(running)
+			{
+				try
+				{
+					batch.add(queue.take());
+
+					// Collect whatever else turns up within the wait window
+					long deadline = System.nanoTime() + maxWaitMillis*1000000L;
+					while(batch.size() < maxBatch)
+					{
+						long left = deadline - System.nanoTime();
+						Request r = (left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll());
+
+						if(r == null)
+							break;
+
+						batch.add(r);
+					}
+				}
+				catch(InterruptedException e)
+				{
+					cancel(batch);
+					break;
+				}
+
+				batches.incrementAndGet();
+
+				for(Request r : batch)
+				{
+					if(r.abandoned)
+						continue;
+
+					try
+					{
+						r.nps = npc.parse_input(r.lines);
+					}
+					catch(Exception e)
+					{
+						r.error = e;
+					}
+
+					r.done.countDown();
+				}
+
+				batch.clear();
+			}
+		}
+	}
+
+	private class ChunkHandler implements HttpHandler
+	{
+		public void handle(HttpExchange ex) throws IOException
+		{
+			long start = System.nanoTime();
+
+			try
+			{
+				if(!ex.getRequestMethod().equals("POST"))
+				{
+					send(ex, 405, "{\"error\":\"POST tagged text to /chunk\"}");
+					return;
+				}
+
+				String body = null;
+
+				try
+				{
+					body = readBody(ex, maxBodyBytes);
+				}
+				catch(NumberFormatException e)
+				{
+					send(ex, 400, "{\"error\":\"the Content-Length isn't a number\"}");
+					return;
+				}
+
+				if(body == null)
+				{
+					tooLarge.incrementAndGet();
+					send(ex, 413, "{\"error\":\"the body is larger than " + maxBodyBytes + " bytes\"}");
+					return;
+				}
+
+				Request r = new Request(body.split("\r?\n"));
+
+				if(!queue.offer(r))
+				{
+					rejected.incrementAndGet();
+					send(ex, 503, "{\"error\":\"overloaded\"}");
+					return;
+				}
+
+				accepted.incrementAndGet();
+
+				if(!r.done.await(timeoutMillis, TimeUnit.MILLISECONDS))
+				{
+					// Don't spend a worker on an answer nobody waits for
+					r.abandoned = true;
+					queue.remove(r);
+
+					timedOut.incrementAndGet();
+					send(ex, 503, "{\"error\":\"timed out\"}");
+					return;
+				}
+
+				if(r.error instanceof CancellationException)
+				{
+					send(ex, 503, "{\"error\":\"stopping\"}");
+					return;
+				}
+				else if(r.error != null)
+				{
+					failed.incrementAndGet();
+					send(ex, 500, "{\"error\":" + quote(String.valueOf(r.error.getMessage())) + "}");
+					return;
+				}
+
+				StringBuilder sb = new StringBuilder("{\"nps\":[");
+				for(int i = 0; i < r.nps.length; i++)
+					sb.append(i == 0 ? "" : ",").append(quote(r.nps[i]));
+				sb.append("]}");
+
+				send(ex, 200, sb.toString());
+				latencies.record(System.nanoTime() - start);
+			}
+			catch(InterruptedException e)
+			{
+				send(ex, 503, "{\"error\":\"interrupted\"}");
+			}
+			finally
+			{
+				ex.close();
+			}
+		}
+	}
+
+	private class MetricsHandler implements HttpHandler
+	{
+		public void handle(HttpExchange ex) throws IOException
+		{
+			long[] sorted = latencies.snapshot();
+
+			String json = "{"
+					+ "\"accepted\":" + accepted.get()
+					+ ",\"rejected\":" + rejected.get()
+					+ ",\"failed\":" + failed.get()
+					+ ",\"timed_out\":" + timedOut.get()
+					+ ",\"too_large\":" + tooLarge.get()
+					+ ",\"batches\":" + batches.get()
+					+ ",\"queued\":" + queue.size()
+					+ ",\"p50_ms\":" + millis(percentile(sorted, 0.50))
+					+ ",\"p99_ms\":" + millis(percentile(sorted, 0.99))
+					+ "}";
+
+			send(ex, 200, json);
+			ex.close();
+		}
+	}
+
+	/**
+	 * Keeps the latest 'capacity' latencies in a ring buffer
+	 */
+	private static class LatencyRecorder
+	{
+		private long[] samples = null;
+		private int next = 0;
+		private int count = 0;
+
+		public LatencyRecorder(int capacity)
+		{
+			samples = new long[capacity];
+		}
+
+		public synchronized void record(long nanos)
+		{
+			samples[next] = nanos;
+			next = (next + 1) % samples.length;
+			count = Math.min(count + 1, samples.length);
+		}
+
+		public synchronized long[] snapshot()
+		{
+			long[] copy = Arrays.copyOf(samples, count);
+			Arrays.sort(copy);
+			return copy;
+		}
+	}
+
+	private static long percentile(long[] sorted, double p)
+	{
+		if(sorted.length == 0)
+			return 0;
+
+		int index = (int)Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length-1))];
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	/**
+	 * The body of the request, null if it is longer than 'max' bytes.
+	 * Throws NumberFormatException if the Content-Length isn't a number.
+	 */
+	private static String readBody(HttpExchange ex, int max) throws IOException
+	{
+		String length = ex.getRequestHeaders().getFirst("Content-Length");
+		if(length != null && Long.parseLong(length.trim()) > max)
+			return null;
+
+		InputStream in = ex.getRequestBody();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+
+		while((n = in.read(buf)) != -1)
+		{
+			if(out.size() + n > max)
+				return null;
+
+			out.write(buf, 0, n);
+		}
+
+		return out.toString("UTF-8");
+	}
+
+	private static void send(HttpExchange ex, int status, String json) throws IOException
+	{
+		byte[] bytes = json.getBytes("UTF-8");
+
+		ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		ex.sendResponseHeaders(status, bytes.length);
+
+		OutputStream out = ex.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	static String quote(String s)
+	{
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+
+		for(int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+
+			switch(c)
+			{
+				case '"':  sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c < 0x20)
+						sb.append(String.format("\\u%04x", (int)c));
+					else
+						sb.append(c);
+			}
+		}
+
+		return sb.append('"').toString();
+	}
+}
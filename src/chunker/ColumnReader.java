@@ -0,0 +1,184 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads tagger output with one token per line in tab separated columns,
+ * with sentences separated by empty lines, e.g. CoNLL-U or SUC style TSV.
+ *
+ * Sentences are read one at a time and the words and tags go straight to
+ * Chunk.parse_tokens(), without first being joined into 'word/tag'
+ * strings. Which columns hold the word and the tag is configurable, and
+ * the tags are run through a TagTable on the way.
+ *
+ * In CoNLL-U mode comment lines ('#') are skipped, as well as multiword
+ * token ranges ('1-2') and empty nodes ('1.1') since their words are
+ * already covered by the ordinary tokens.
+ */
+public class ColumnReader
+{
+	private BufferedReader in = null;
+	private int wordColumn = 0;
+	private int tagColumn = 1;
+	private TagTable tags = null;
+	private boolean conllu = false;
+
+	private List<String> words = new ArrayList<String>();
+	private List<String> sentenceTags = new ArrayList<String>();
+
+	public ColumnReader(Reader in, int wordColumn, int tagColumn, TagTable tags)
+	{
+		this.in = (in instanceof BufferedReader ? (BufferedReader)in : new BufferedReader(in));
+		this.wordColumn = wordColumn;
+		this.tagColumn = tagColumn;
+		this.tags = tags;
+	}
+
+	/**
+	 * CoNLL-U with FORM as the word and XPOS as the tag
+	 */
+	public static ColumnReader conllu(Reader in, TagTable tags)
+	{
+		ColumnReader r = new ColumnReader(in, 1, 4, tags);
+		r.conllu = true;
+		return r;
+	}
+
+	/**
+	 * SUC style 'word<TAB>tag' lines
+	 */
+	public static ColumnReader suc(Reader in, TagTable tags)
+	{
+		return new ColumnReader(in, 0, 1, tags);
+	}
+
+	/**
+	 * Reads the next sentence, returns false at the end of the input
+	 */
+	public boolean next() throws IOException
+	{
+		words.clear();
+		sentenceTags.clear();
+
+		String line;
+		while((line = in.readLine()) != null)
+		{
+			if(line.length() == 0 || line.trim().length() == 0)
+			{
+				if(words.isEmpty())
+					continue;
+
+				return true;
+			}
+
+			if(conllu && line.charAt(0) == '#')
+				continue;
+
+			String[] cols = split(line);
+
+			if(conllu && !isWord(cols[0]))
+				continue;
+
+			if(cols.length <= Math.max(wordColumn, tagColumn))
+				throw new IOException("Too few columns in '" + line + "'");
+
+			words.add(cols[wordColumn]);
+			sentenceTags.add(tags.translate(cols[tagColumn]));
+		}
+
+		return !words.isEmpty();
+	}
+
+	private static boolean isWord(String id)
+	{
+		for(int i = 0; i < id.length(); i++)
+			if(id.charAt(i) < '0' || id.charAt(i) > '9')
+				return false;
+
+		return id.length() > 0;
+	}
+
+	private static String[] split(String line)
+	{
+		List<String> cols = new ArrayList<String>(10);
+		int start = 0, tab;
+
+		while((tab = line.indexOf('\t', start)) >= 0)
+		{
+			cols.add(line.substring(start, tab));
+			start = tab + 1;
+		}
+
+		cols.add(line.substring(start));
+		return cols.toArray(new String[cols.size()]);
+	}
+
+	public String[] words()
+	{
+		return words.toArray(new String[words.size()]);
+	}
+
+	public String[] tags()
+	{
+		return sentenceTags.toArray(new String[sentenceTags.size()]);
+	}
+
+	/**
+	 * Chunks a column file, or stdin, and prints the NPs
+	 *
+	 *   ColumnReader [--format conllu|suc] [--word-col N] [--tag-col N]
+	 *                [--suc-tags] [--tag-table file] [file]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String format = "suc";
+		int wordCol = -1, tagCol = -1;
+		TagTable table = new TagTable();
+		File tableFile = null;
+		String file = null;
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--format"))
+				format = args[++i];
+			else if(args[i].equals("--word-col"))
+				wordCol = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--tag-col"))
+				tagCol = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--suc-tags"))
+				table = TagTable.suc();
+			else if(args[i].equals("--tag-table"))
+				tableFile = new File(args[++i]);
+			else
+				file = args[i];
+		}
+
+		if(tableFile != null)
+			table.load(tableFile);
+
+		Reader in = new InputStreamReader(file == null ? System.in : new FileInputStream(file), "UTF-8");
+
+		ColumnReader r = null;
+		if(format.equals("conllu"))
+			r = conllu(in, table);
+		else if(format.equals("suc"))
+			r = suc(in, table);
+		else
+			throw new IllegalArgumentException("Unknown format: " + format);
+
+		if(wordCol >= 0)
+			r.wordColumn = wordCol;
+		if(tagCol >= 0)
+			r.tagColumn = tagCol;
+
+		Chunk npc = new Chunk();
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+		while(r.next())
+			for(String np : npc.parse_tokens(r.words(), r.tags()))
+				out.println(np);
+
+		out.flush();
+	}
+}
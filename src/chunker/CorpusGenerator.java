@@ -0,0 +1,497 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+import chunker.Chunk.TokenTypes;
+
+/**
+ * Generates a tagged corpus of any size from the chunker's own grammar,
+ * for benchmarks and load tests that can't use the real corpora.
+ *
+ * A sentence is a sequence of PHRASEs, as SENT becomes during error
+ * recovery, each one derived at random from the grammar. The kind of each
+ * PHRASE (NP, PP, VC, a single konj, ...) is drawn from a distribution
+ * over its rules' symbols, which --phrase changes, e.g. "NP=6,konj=2".
+ * Below that every rule of a nonterminal is picked with a weight: empty
+ * rules get --optional, which sets how often optional parts and further
+ * list elements are left out, and that is multiplied by
+ *
+ *   --coordination  for rules that coordinate, i.e. have konj or del_min
+ *                   or a nonterminal whose rules all do, like APMAX
+ *   --adjectives    for rules that stack adjectives in the same sense
+ *
+ * so the two raise the ambiguity density. Where the weights leave a
+ * nonterminal no rule, e.g. with --adjectives 0, its shortest rule is
+ * used anyway. --optional must be above 0, or lists would never end.
+ * Sentence lengths in tokens are log-normal around --length, capped at
+ * --max-length. With --noise each token is, with that probability,
+ * swapped with the next, replaced by a random token, or preceded by a
+ * token with an unknown tag, which breaks phrases up and sends the parser
+ * into error recovery.
+ *
+ * The words come from a small lexicon per token type with Parole style
+ * tags. Each entry is checked against the tokenizer's patterns when the
+ * generator is created. Terminals without entries, like 'particip', are
+ * never generated. The output only depends on the options and --seed.
+ *
+ *   CorpusGenerator [--sentences N] [--seed S] [--length mean]
+ *                   [--length-spread sigma] [--max-length N]
+ *                   [--phrase T=w,...] [--optional w] [--coordination w]
+ *                   [--adjectives w] [--noise p]
+ */
+public class CorpusGenerator
+{
+	private static final String[][] LEXICON =
+	{
+		{"det", "en/DI@US@S", "ett/DI@NS@S", "den/DF@US@S", "det/DF@NS@S", "de/DF@0P@S",
+				"alla/D0@0P@S", "varje/DI@0S@S"},
+		{"n_gen", "kommunens/NCUSG@DS", "projektets/NCNSG@DS", "vårdens/NCUSG@DS",
+				"patientens/NCUSG@DS"},
+		{"prop_n_gen", "Sveriges/NP00G@0S", "Örebro/NP00G@0S", "Värmlands/NP00G@0S"},
+		{"adv", "direkt/RGPS", "tidigt/RGPS", "mycket/RGPS", "särskilt/RGPS"},
+		{"sent_adv", "inte/RG0S", "också/RG0S", "alltid/RG0S", "kanske/RG0S", "ofta/RG0S"},
+		{"here_there", "här/RG0S", "där/RG0S"},
+		{"prep_mellan", "mellan/SPS"},
+		{"konj", "och/CCS", "samt/CCS", "eller/CCS"},
+		{"subj", "att/CSS", "om/CSS", "eftersom/CSS"},
+		{"prep", "i/SPS", "på/SPS", "med/SPS", "för/SPS", "av/SPS", "inom/SPS", "till/SPS",
+				"från/SPS"},
+		{"adj_sing", "stor/AQPUSNIS", "ny/AQPUSNIS", "viktig/AQPUSNIS", "nationell/AQPUSNIS",
+				"psykiatrisk/AQPUSNIS"},
+		{"adj_plur", "stora/AQP0PN0S", "nya/AQP0PN0S", "befintliga/AQP0PN0S", "olika/AQP0PN0S"},
+		{"adj_sing_plur", "framstående/AP000N0S", "pågående/AP000N0S", "kommande/AP000N0S"},
+		{"num", "tre/MC00N0S", "två/MC00N0S", "tio/MC00N0S", "första/MO00N0S"},
+		{"pron", "vi/PF@0PS@S", "man/PI@USS@S", "detta/PF@NS0@S", "som/PH@000@S"},
+		{"poss_pron", "sin/PS@US@0S", "vår/PS@US@0S", "deras/PS@0P@0S"},
+		{"comp_noun", "hälso-/NCUSN@IC", "forsknings-/NCUSN@IC"},
+		{"prop_comp_noun", "Stockholms-/NP000@0C", "Karolinska-/NP000@0C"},
+		{"prop_noun", "Stockholm/NP00N@0S", "Karolinska/NP00N@0S", "TeleCoach/NP00N@0S",
+				"Skåne/NP00N@0S"},
+		{"com_noun", "rapport/NCUSN@IS", "system/NCNSN@IS", "projektet/NCNSN@DS",
+				"personer/NCUPN@IS", "vård/NCUSN@IS", "kliniken/NCUSN@DS", "utredning/NCUSN@IS"},
+		{"inf", "att/CIS"},
+		{"inf_verb", "undersöka/V@N0AS", "trycka/V@N0AS", "utveckla/V@N0AS"},
+		{"part", "upp/QS", "ner/QS"},
+		{"fin_verb", "är/V@IPAS", "har/V@IPAS", "erbjuder/V@IPAS", "testades/V@IISS",
+				"var/V@IIAS"},
+		{"sup_verb", "varit/V@IUAS", "gjort/V@IUAS"},
+		{"imp_verb", "ladda/V@M0AS", "läs/V@M0AS"},
+		{"conj_verb", "vore/V@SIAS"},
+		{"del_min", ",/FI"},
+		{"del_maj", "./FE"},
+		{"del_paren", "(/FP"},
+		{"interj", "ja/I"},
+		{"u_o", "the/XF", "of/XF"},
+	};
+
+	// Tokens the tokenizer drops, as in Main's sample
+	private static final String[] UNKNOWN = {"acts/uo", "violence/uo", "among/uo"};
+
+	private static final String DEFAULT_PHRASES = "NP=6,PP=4,VC=3,ADVP=1,AP=0.5,INFP=0.5," +
+			"NUMP=0.3,DETPOSSPRON=0.2,konj=0.8,del_min=0.6,subj=0.4,sent_adv=0.4,prep=0.2," +
+			"pron=0.2,fin_verb=0.2,del_paren=0.05,interj=0.02,u_o=0.05";
+
+	private Chunk grammar = new Chunk();
+	private Random rnd = null;
+
+	private EnumMap<TokenTypes,String[]> words = new EnumMap<TokenTypes,String[]>(TokenTypes.class);
+	private TokenTypes[] lexical = null;
+
+	private EnumMap<TokenTypes,Double> phrases = new EnumMap<TokenTypes,Double>(TokenTypes.class);
+	private double optional = 2;
+	private double coordination = 0.3;
+	private double adjectives = 1;
+	private double length = 12;
+	private double lengthSpread = 0.5;
+	private int maxLength = 200;
+	private double noise = 0;
+
+	// By rule id
+	private double[] weights = null;
+	// The rules whose terminals all have words, by rule id
+	private boolean[] usable = null;
+	// The fewest tokens each nonterminal can derive, used past MAX_DEPTH
+	private EnumMap<TokenTypes,Integer> minTokens = null;
+	private static final int MAX_DEPTH = 40;
+
+	public CorpusGenerator(long seed)
+	{
+		rnd = new Random(seed);
+
+		for(String[] entry : LEXICON)
+		{
+			TokenTypes type = TokenTypes.valueOf(entry[0]);
+			String[] ws = Arrays.copyOfRange(entry, 1, entry.length);
+
+			for(String wt : ws)
+			{
+				Chunk.Segment[] segments = grammar.tokenizeLine(wt);
+				if(segments.length != 1 || segments[0].size() != 1 || segments[0].type(0) != type)
+					throw new IllegalStateException("'" + wt + "' isn't tokenized as " + type);
+			}
+
+			words.put(type, ws);
+		}
+
+		lexical = words.keySet().toArray(new TokenTypes[words.size()]);
+		setPhrases(DEFAULT_PHRASES);
+	}
+
+	/**
+	 * The weights of the kinds of PHRASE, e.g. "NP=6,konj=2". Kinds that
+	 * aren't given keep their weight.
+	 */
+	public CorpusGenerator setPhrases(String spec)
+	{
+		for(String kv : spec.split(","))
+		{
+			String[] p = kv.split("=");
+			phrases.put(TokenTypes.valueOf(p[0].trim()), Double.parseDouble(p[1]));
+		}
+
+		weights = null;
+		return this;
+	}
+
+	public CorpusGenerator setOptional(double w)
+	{
+		if(!(w > 0))
+			throw new IllegalArgumentException("--optional must be above 0, or lists would never end: " + w);
+
+		optional = w;
+		weights = null;
+		return this;
+	}
+
+	public CorpusGenerator setCoordination(double w)
+	{
+		coordination = w;
+		weights = null;
+		return this;
+	}
+
+	public CorpusGenerator setAdjectives(double w)
+	{
+		adjectives = w;
+		weights = null;
+		return this;
+	}
+
+	/**
+	 * The mean sentence length in tokens and the sigma of its logarithm
+	 */
+	public CorpusGenerator setLength(double mean, double spread, int max)
+	{
+		length = mean;
+		lengthSpread = spread;
+		maxLength = max;
+		return this;
+	}
+
+	public CorpusGenerator setNoise(double p)
+	{
+		noise = p;
+		return this;
+	}
+
+	/**
+	 * The next sentence as a line of 'word/tag' tokens
+	 */
+	public String sentence()
+	{
+		if(weights == null)
+			makeWeights();
+
+		double g = rnd.nextGaussian() * lengthSpread - lengthSpread * lengthSpread / 2;
+		int target = (int)Math.max(1, Math.min(maxLength, Math.round(length * Math.exp(g))));
+
+		List<TokenTypes> types = new ArrayList<TokenTypes>();
+		while(types.size() < target)
+			derive(TokenTypes.PHRASE, 0, types);
+
+		List<String> tokens = new ArrayList<String>(types.size());
+		for(TokenTypes t : types)
+			tokens.add(word(t));
+
+		if(noise > 0)
+			addNoise(tokens);
+
+		StringBuilder sb = new StringBuilder();
+		for(String wt : tokens)
+			sb.append(sb.length() == 0 ? "" : " ").append(wt);
+
+		return sb.toString();
+	}
+
+	private void derive(TokenTypes sym, int depth, List<TokenTypes> out)
+	{
+		if(!grammar.isNonterminal(sym))
+		{
+			out.add(sym);
+			return;
+		}
+
+		int[] ids = grammar.rulesFor(sym);
+		int id = depth >= MAX_DEPTH ? shortest(ids) : pick(ids);
+
+		for(TokenTypes s : grammar.ruleRhs(id))
+			derive(s, depth + 1, out);
+	}
+
+	private int pick(int[] ids)
+	{
+		double total = 0;
+		for(int id : ids)
+			total += weights[id];
+
+		double r = rnd.nextDouble() * total;
+
+		for(int id : ids)
+		{
+			r -= weights[id];
+			if(r < 0 && weights[id] > 0)
+				return id;
+		}
+
+		return shortest(ids);
+	}
+
+	/**
+	 * The rule that derives the fewest tokens, of those with a weight if
+	 * there are any, else of those that can be generated at all
+	 */
+	private int shortest(int[] ids)
+	{
+		int best = shortest(ids, true);
+		return best >= 0 ? best : shortest(ids, false);
+	}
+
+	private int shortest(int[] ids, boolean weighted)
+	{
+		int best = -1, bestTokens = Integer.MAX_VALUE;
+
+		for(int id : ids)
+		{
+			if(!usable[id] || (weighted && weights[id] <= 0))
+				continue;
+
+			int n = tokens(grammar.ruleRhs(id));
+			if(n < bestTokens)
+			{
+				best = id;
+				bestTokens = n;
+			}
+		}
+
+		return best;
+	}
+
+	private String word(TokenTypes t)
+	{
+		String[] ws = words.get(t);
+		return ws[rnd.nextInt(ws.length)];
+	}
+
+	private void addNoise(List<String> tokens)
+	{
+		for(int i = 0; i < tokens.size(); i++)
+		{
+			if(rnd.nextDouble() >= noise)
+				continue;
+
+			switch(rnd.nextInt(3))
+			{
+				case 0:
+					if(i + 1 < tokens.size())
+						Collections.swap(tokens, i, i + 1);
+					break;
+				case 1:
+					tokens.set(i, word(lexical[rnd.nextInt(lexical.length)]));
+					break;
+				default:
+					tokens.add(i++, UNKNOWN[rnd.nextInt(UNKNOWN.length)]);
+			}
+		}
+	}
+
+	/**
+	 * The weight of every rule, see the class comment. Rules with a
+	 * terminal that has no words get 0 and aren't usable.
+	 */
+	private void makeWeights()
+	{
+		EnumSet<TokenTypes> coordinating = allRulesHave(EnumSet.of(TokenTypes.konj, TokenTypes.del_min));
+		EnumSet<TokenTypes> adjectival = allRulesHave(EnumSet.of(TokenTypes.adj_sing,
+				TokenTypes.adj_plur, TokenTypes.adj_sing_plur));
+
+		weights = new double[grammar.ruleCount()];
+		usable = new boolean[weights.length];
+
+		for(int id = 0; id < weights.length; id++)
+		{
+			TokenTypes[] rhs = grammar.ruleRhs(id);
+			double w = rhs.length == 0 ? optional : 1;
+
+			usable[id] = true;
+			for(TokenTypes s : rhs)
+				if(!grammar.isNonterminal(s) && !words.containsKey(s))
+					usable[id] = false;
+
+			if(!usable[id])
+				w = 0;
+
+			if(grammar.ruleLhs(id) == TokenTypes.PHRASE)
+			{
+				Double p = phrases.get(rhs[0]);
+				w = p == null ? 0 : w * p;
+			}
+			else
+			{
+				if(containsAny(rhs, coordinating))
+					w *= coordination;
+				if(containsAny(rhs, adjectival))
+					w *= adjectives;
+			}
+
+			weights[id] = w;
+		}
+
+		minTokens = new EnumMap<TokenTypes,Integer>(TokenTypes.class);
+		boolean changes = true;
+
+		while(changes)
+		{
+			changes = false;
+
+			for(int id = 0; id < weights.length; id++)
+			{
+				if(!usable[id])
+					continue;
+
+				int n = tokens(grammar.ruleRhs(id));
+				Integer old = minTokens.get(grammar.ruleLhs(id));
+
+				if(n < Integer.MAX_VALUE && (old == null || n < old))
+				{
+					minTokens.put(grammar.ruleLhs(id), n);
+					changes = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The fewest tokens a rhs can derive, MAX_VALUE if not known yet
+	 */
+	private int tokens(TokenTypes[] rhs)
+	{
+		long n = 0;
+
+		for(TokenTypes s : rhs)
+		{
+			if(!grammar.isNonterminal(s))
+				n++;
+			else if(minTokens.containsKey(s))
+				n += minTokens.get(s);
+			else
+				return Integer.MAX_VALUE;
+		}
+
+		return (int)n;
+	}
+
+	/**
+	 * The nonterminals whose every rule has one of the terminals or one of
+	 * the nonterminals found so far
+	 */
+	private EnumSet<TokenTypes> allRulesHave(EnumSet<TokenTypes> terminals)
+	{
+		EnumSet<TokenTypes> found = EnumSet.noneOf(TokenTypes.class);
+		boolean changes = true;
+
+		while(changes)
+		{
+			changes = false;
+
+			for(TokenTypes nt : TokenTypes.values())
+			{
+				if(!grammar.isNonterminal(nt) || found.contains(nt))
+					continue;
+
+				boolean all = true;
+				for(int id : grammar.rulesFor(nt))
+					all &= containsAny(grammar.ruleRhs(id), terminals) ||
+							containsAny(grammar.ruleRhs(id), found);
+
+				if(all)
+				{
+					found.add(nt);
+					changes = true;
+				}
+			}
+		}
+
+		found.addAll(terminals);
+		return found;
+	}
+
+	private static boolean containsAny(TokenTypes[] rhs, EnumSet<TokenTypes> set)
+	{
+		for(TokenTypes s : rhs)
+			if(set.contains(s))
+				return true;
+
+		return false;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		long sentences = 1000;
+		long seed = 1;
+		double mean = 12, spread = 0.5;
+		int max = 200;
+		List<String[]> settings = new ArrayList<String[]>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--sentences"))
+				sentences = Long.parseLong(args[++i]);
+			else if(args[i].equals("--seed"))
+				seed = Long.parseLong(args[++i]);
+			else if(args[i].equals("--length"))
+				mean = Double.parseDouble(args[++i]);
+			else if(args[i].equals("--length-spread"))
+				spread = Double.parseDouble(args[++i]);
+			else if(args[i].equals("--max-length"))
+				max = Integer.parseInt(args[++i]);
+			else
+				settings.add(new String[] {args[i], args[++i]});
+		}
+
+		CorpusGenerator gen = new CorpusGenerator(seed).setLength(mean, spread, max);
+
+		for(String[] s : settings)
+		{
+			if(s[0].equals("--phrase"))
+				gen.setPhrases(s[1]);
+			else if(s[0].equals("--optional"))
+				gen.setOptional(Double.parseDouble(s[1]));
+			else if(s[0].equals("--coordination"))
+				gen.setCoordination(Double.parseDouble(s[1]));
+			else if(s[0].equals("--adjectives"))
+				gen.setAdjectives(Double.parseDouble(s[1]));
+			else if(s[0].equals("--noise"))
+				gen.setNoise(Double.parseDouble(s[1]));
+			else
+				throw new IllegalArgumentException("Unknown option " + s[0]);
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+		for(long n = 0; n < sentences; n++)
+			out.println(gen.sentence());
+
+		out.flush();
+	}
+}
@@ -0,0 +1,375 @@
+package chunker;
+
+import java.util.*;
+
+import chunker.Chunk.TokenTypes;
+
+/**
+ * A CYK style parser for the grammar in Chunk where the chart cells are
+ * bit vectors, used when a Chunk's backend is set to CYK, which only
+ * EquivalenceCheck and BackendBench do.
+ *
+ * Rather than converting the grammar to normal form, every rule
+ * A ::= X1 .. Xn gets n+1 bits for the items 'the first k symbols have
+ * been recognized', numbered consecutively. A cell holds the symbols and
+ * items spanning its range of tokens. Combining a cell [i,m) with a cell
+ * [m,j) is then, for every symbol X in [m,j), taking the items in [i,m)
+ * that expect X and shifting them one bit to the left, which moves each
+ * of them to its next item. Items that are complete add their LHS. The
+ * empty rules are handled by a cell for the empty span which is the same
+ * at every position.
+ *
+ * The sentence is a sequence of PHRASEs, like the SENT rule of the Earley
+ * parser after it has been extended. The derivation is picked from the
+ * right like TreeBuilder.buildTree() does, taking the rule with the
+ * highest priority for each symbol, but this is not the same selection as
+ * ambiguity(). That one picks among the children in the order the Earley
+ * chart happened to add them, after the beam and lookahead have pruned
+ * it, which a chart without that order can't reproduce. Ties go to the
+ * longest span instead, and the NPs differ from the Earley parser's on a
+ * few percent of the sentences, use EquivalenceCheck --engine cyk to see.
+ *
+ * Not thread safe, each Chunk has its own.
+ */
+class CykParser
+{
+	private int symbols = 0;
+	private int words = 0;
+
+	private int[] ruleIds = null;
+	// The bit of the first item of each rule, by rule id
+	private int[] base = null;
+	private TokenTypes[][] rhs = null;
+	private int[] priority = null;
+	private int[][] rulesFor = null;
+	private boolean[] nonterminal = null;
+
+	// The items expecting each symbol next
+	private long[][] expecting = null;
+	private long[] complete = null;
+	private int[] lhsOfBit = null;
+	private long[] empty = null;
+
+	private int phrase = TokenTypes.PHRASE.ordinal();
+
+	// The chart of the current parse, [i][j] for i < j
+	private long[][][] chart = null;
+	private long[] scratch = null;
+
+	public CykParser(Chunk grammar)
+	{
+		TokenTypes[] all = TokenTypes.values();
+		symbols = all.length;
+
+		nonterminal = new boolean[symbols];
+		rulesFor = new int[symbols][];
+
+		List<Integer> ids = new ArrayList<Integer>();
+
+		for(TokenTypes t : all)
+		{
+			nonterminal[t.ordinal()] = grammar.isNonterminal(t);
+			rulesFor[t.ordinal()] = new int[0];
+
+			// The sentence level is handled by parse()
+			if(t == TokenTypes.START || t == TokenTypes.SENT || !nonterminal[t.ordinal()])
+				continue;
+
+			rulesFor[t.ordinal()] = grammar.rulesFor(t);
+			for(int id : rulesFor[t.ordinal()])
+				ids.add(id);
+		}
+
+		int count = grammar.ruleCount();
+		base = new int[count];
+		rhs = new TokenTypes[count][];
+		priority = new int[count];
+		ruleIds = new int[ids.size()];
+
+		int bits = symbols;
+		for(int i = 0; i < ruleIds.length; i++)
+		{
+			int id = ids.get(i);
+			ruleIds[i] = id;
+			rhs[id] = grammar.ruleRhs(id);
+			priority[id] = grammar.rulePriority(id);
+			base[id] = bits;
+			bits += rhs[id].length + 1;
+		}
+
+		words = (bits + 63) / 64;
+		expecting = new long[symbols][words];
+		complete = new long[words];
+		lhsOfBit = new int[bits];
+		scratch = new long[words];
+
+		for(int id : ruleIds)
+		{
+			for(int k = 0; k < rhs[id].length; k++)
+				set(expecting[rhs[id][k].ordinal()], base[id] + k);
+
+			int last = base[id] + rhs[id].length;
+			set(complete, last);
+			lhsOfBit[last] = grammar.ruleLhs(id).ordinal();
+		}
+
+		empty = new long[words];
+		for(int id : ruleIds)
+			set(empty, base[id]);
+
+		close(empty);
+	}
+
+	private static void set(long[] v, int bit)
+	{
+		v[bit >>> 6] |= 1L << bit;
+	}
+
+	private static boolean get(long[] v, int bit)
+	{
+		return (v[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Adds to 'out' the items of 'left' advanced over the symbols of
+	 * 'right', returns true if anything was added
+	 */
+	private boolean combine(long[] left, long[] right, long[] out)
+	{
+		boolean changed = false;
+		long[] next = scratch;
+
+		for(int w = 0; w * 64 < symbols; w++)
+		{
+			long syms = right[w];
+			if(w == symbols / 64)
+				syms &= (1L << (symbols % 64)) - 1;
+
+			while(syms != 0)
+			{
+				int x = w * 64 + Long.numberOfTrailingZeros(syms);
+				syms &= syms - 1;
+
+				long[] exp = expecting[x];
+				long any = 0;
+
+				for(int i = 0; i < words; i++)
+				{
+					next[i] = left[i] & exp[i];
+					any |= next[i];
+				}
+
+				if(any == 0)
+					continue;
+
+				// Move each item to the next one of its rule
+				long carry = 0;
+				for(int i = 0; i < words; i++)
+				{
+					long shifted = (next[i] << 1) | carry;
+					carry = next[i] >>> 63;
+
+					if((shifted & ~out[i]) != 0)
+					{
+						out[i] |= shifted;
+						changed = true;
+					}
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Adds the LHS of complete items, and what follows from combining the
+	 * cell with the empty span on either side, until nothing changes
+	 */
+	private void close(long[] cell)
+	{
+		boolean changed = true;
+
+		while(changed)
+		{
+			changed = false;
+
+			for(int w = 0; w < words; w++)
+			{
+				long done = cell[w] & complete[w];
+
+				while(done != 0)
+				{
+					int bit = w * 64 + Long.numberOfTrailingZeros(done);
+					done &= done - 1;
+
+					int lhs = lhsOfBit[bit];
+					if(!get(cell, lhs))
+					{
+						set(cell, lhs);
+						changed = true;
+					}
+				}
+			}
+
+			changed |= combine(empty, cell, cell);
+			changed |= combine(cell, empty, cell);
+		}
+	}
+
+	private long[] cell(int i, int j)
+	{
+		return i == j ? empty : chart[i][j];
+	}
+
+	/**
+	 * Parses a segment, returns the ids of the rules of the derivation of
+	 * each PHRASE in preorder, or null if there is no parse
+	 */
+	public int[] parse(TokenTypes[] types)
+	{
+		int n = types.length;
+		chart = new long[n][n+1][];
+
+		for(int len = 1; len <= n; len++)
+		{
+			for(int i = 0; i + len <= n; i++)
+			{
+				int j = i + len;
+				long[] cell = new long[words];
+
+				if(len == 1)
+					set(cell, types[i].ordinal());
+
+				for(int m = i + 1; m < j; m++)
+					combine(chart[i][m], chart[m][j], cell);
+
+				close(cell);
+				chart[i][j] = cell;
+			}
+		}
+
+		// Where a sequence of phrases from the start can end
+		boolean[] reach = new boolean[n+1];
+		reach[0] = true;
+
+		for(int j = 1; j <= n; j++)
+			for(int m = 0; m < j && !reach[j]; m++)
+				reach[j] = reach[m] && get(chart[m][j], phrase);
+
+		if(!reach[n])
+			return null;
+
+		// The phrases from the right, like buildTree()
+		List<int[]> phrases = new ArrayList<int[]>();
+		int end = n;
+
+		while(end > 0)
+		{
+			int[] best = best(phrase, end, 0, -1, reach);
+			phrases.add(best);
+			end = best[1];
+		}
+
+		IntList out = new IntList();
+		for(int p = phrases.size() - 1; p >= 0; p--)
+			derive(phrases.get(p)[0], phrases.get(p)[1], phrases.get(p)[2], out);
+
+		chart = null;
+
+		return out.toArray();
+	}
+
+	/**
+	 * Picks the rule, and its start, for symbol 'x' ending at 'end'. The
+	 * start must be at least 'from', and either the item 'prefix' must span
+	 * [from, start) or, for the phrases, reach[start] must be set.
+	 * Returns {rule, start, end}.
+	 *
+	 * Between rules with the same priority the longest one wins, and then
+	 * the one tried last. That agrees with the Earley parser more often
+	 * than the shortest one does, but not always, see above.
+	 */
+	private int[] best(int x, int end, int from, int prefix, boolean[] reach)
+	{
+		int[] best = null;
+		int maxPrio = -1;
+
+		for(int start = end; start >= from; start--)
+		{
+			if(reach != null ? !reach[start] || start == end : !get(cell(from, start), prefix))
+				continue;
+
+			long[] c = cell(start, end);
+
+			for(int id : rulesFor[x])
+			{
+				if(!get(c, base[id] + rhs[id].length))
+					continue;
+
+				if(priority[id] >= maxPrio)
+				{
+					maxPrio = priority[id];
+					best = new int[] {id, start, end};
+				}
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Adds the derivation of rule 'id' spanning [i,j) to 'out', in preorder.
+	 * The pending rules are kept on a stack rather than the Java stack.
+	 */
+	private void derive(int id, int i, int j, IntList out)
+	{
+		ArrayDeque<int[]> pending = new ArrayDeque<int[]>();
+		pending.push(new int[] {id, i, j});
+
+		while(!pending.isEmpty())
+		{
+			int[] top = pending.pop();
+			id = top[0];
+			i = top[1];
+			out.add(id);
+
+			// The children from the right, so the leftmost ends up on top
+			TokenTypes[] r = rhs[id];
+			int end = top[2];
+
+			for(int k = r.length; k > 0; k--)
+			{
+				int x = r[k-1].ordinal();
+
+				if(!nonterminal[x])
+				{
+					end--;
+					continue;
+				}
+
+				int[] kid = best(x, end, i, base[id] + k - 1, null);
+				pending.push(kid);
+				end = kid[1];
+			}
+		}
+	}
+
+	private static class IntList
+	{
+		private int[] values = new int[64];
+		private int size = 0;
+
+		public void add(int v)
+		{
+			if(size == values.length)
+				values = Arrays.copyOf(values, size*2);
+
+			values[size++] = v;
+		}
+
+		public int[] toArray()
+		{
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
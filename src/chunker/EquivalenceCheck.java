@@ -0,0 +1,308 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs a candidate engine next to the frozen ReferenceChunk and reports
+ * every sentence where the NPs differ.
+ *
+ * Optimizations of the parser easily change which parse ambiguity() and
+ * resolve() end up picking, since that depends on the order of the items
+ * in the chart, and such changes only show on some sentences. So every
+ * line of the input is chunked by both, and for each line that differs the
+ * sentence is printed together with the NPs only the reference found (-)
+ * and the NPs only the candidate found (+).
+ *
+ * Besides the real input, random sentences can be generated from the
+ * words in it (--generate), which gives tag sequences the real corpus
+ * doesn't have. The exit status is 1 if anything differed, so the check
+ * can be run from scripts before performance work is merged.
+ *
+ *   EquivalenceCheck [--engine name] [--generate N] [--seed S]
+ *                    [--max-diffs N] [file]...
+ */
+public class EquivalenceCheck
+{
+	/**
+	 * Something that chunks one line of 'word/tag' tokens
+	 */
+	interface Engine
+	{
+		String[] chunk(String line);
+	}
+
+	private ReferenceChunk reference = new ReferenceChunk();
+	private Engine candidate = null;
+	private PrintStream out = null;
+	private int maxDiffs = Integer.MAX_VALUE;
+
+	private long sentences = 0;
+	private long differing = 0;
+	private long referenceNanos = 0;
+	private long candidateNanos = 0;
+
+	public EquivalenceCheck(Engine candidate, PrintStream out)
+	{
+		this.candidate = candidate;
+		this.out = out;
+	}
+
+	/**
+	 * The engines that can be checked, by name
+	 */
+	static Engine engine(String name)
+	{
+		if(name.equals("chunk"))
+		{
+			final Chunk npc = new Chunk();
+
+			return new Engine()
+			{
+				public String[] chunk(String line)
+				{
+					return npc.parse_input(new String[] {line});
+				}
+			};
+		}
+		else if(name.equals("cyk") || name.equals("np_earley"))
+		{
+			final Chunk npc = new Chunk();
+			npc.setBackend(Chunk.Backend.valueOf(name.toUpperCase()));
+
+			return new Engine()
+			{
+				public String[] chunk(String line)
+				{
+					return npc.parse_input(new String[] {line});
+				}
+			};
+		}
+		else if(name.equals("tokens"))
+		{
+			final Chunk npc = new Chunk();
+
+			return new Engine()
+			{
+				public String[] chunk(String line)
+				{
+					if(line.trim().equals(""))
+						return new String[0];
+
+					String[] wt = line.split(" ");
+					String[] words = new String[wt.length];
+					String[] tags = new String[wt.length];
+
+					for(int i = 0; i < wt.length; i++)
+					{
+						int index = wt[i].lastIndexOf('/');
+						words[i] = wt[i].substring(0, Math.max(0, index));
+						tags[i] = wt[i].substring(index + 1);
+					}
+
+					return npc.parse_tokens(words, tags);
+				}
+			};
+		}
+
+		throw new IllegalArgumentException("Unknown engine: " + name);
+	}
+
+	public void setMaxDiffs(int maxDiffs)
+	{
+		this.maxDiffs = maxDiffs;
+	}
+
+	/**
+	 * Chunks the line with both engines, returns true if they agree
+	 */
+	public boolean check(String where, String line)
+	{
+		sentences++;
+
+		long start = System.nanoTime();
+		List<String> expected = Arrays.asList(reference.parse_input(new String[] {line}));
+		long mid = System.nanoTime();
+
+		List<String> actual = null;
+		String failure = null;
+
+		try
+		{
+			actual = Arrays.asList(candidate.chunk(line));
+		}
+		catch(RuntimeException e)
+		{
+			actual = new ArrayList<String>();
+			failure = e.toString();
+		}
+
+		long end = System.nanoTime();
+		referenceNanos += mid - start;
+		candidateNanos += end - mid;
+
+		if(failure == null && expected.equals(actual))
+			return true;
+
+		if(++differing > maxDiffs)
+			return false;
+
+		out.println(where + ":");
+		out.println("  " + line);
+
+		if(failure != null)
+			out.println("  ! " + failure);
+
+		diff(expected, actual);
+		out.println();
+
+		return false;
+	}
+
+	/**
+	 * Prints the NPs that are only in one of the lists, in order, using
+	 * their longest common subsequence
+	 */
+	private void diff(List<String> a, List<String> b)
+	{
+		int[][] lcs = new int[a.size() + 1][b.size() + 1];
+
+		for(int i = a.size() - 1; i >= 0; i--)
+			for(int j = b.size() - 1; j >= 0; j--)
+				lcs[i][j] = a.get(i).equals(b.get(j)) ? lcs[i+1][j+1] + 1 :
+						Math.max(lcs[i+1][j], lcs[i][j+1]);
+
+		int i = 0, j = 0;
+		while(i < a.size() || j < b.size())
+		{
+			if(i < a.size() && j < b.size() && a.get(i).equals(b.get(j)))
+			{
+				i++;
+				j++;
+			}
+			else if(j == b.size() || (i < a.size() && lcs[i+1][j] >= lcs[i][j+1]))
+				out.println("  - " + a.get(i++));
+			else
+				out.println("  + " + b.get(j++));
+		}
+	}
+
+	/**
+	 * Random sentences made up of the tokens of the given lines, with
+	 * lengths drawn from the same lines
+	 */
+	static List<String> generate(List<String> lines, int n, long seed)
+	{
+		List<String> tokens = new ArrayList<String>();
+		List<Integer> lengths = new ArrayList<Integer>();
+
+		for(String line : lines)
+		{
+			if(line.trim().equals(""))
+				continue;
+
+			String[] wt = line.split(" ");
+			tokens.addAll(Arrays.asList(wt));
+			lengths.add(wt.length);
+		}
+
+		List<String> generated = new ArrayList<String>(n);
+		if(tokens.isEmpty())
+			return generated;
+
+		Random rnd = new Random(seed);
+
+		for(int i = 0; i < n; i++)
+		{
+			int len = lengths.get(rnd.nextInt(lengths.size()));
+			StringBuilder sb = new StringBuilder();
+
+			for(int j = 0; j < len; j++)
+			{
+				if(j > 0)
+					sb.append(' ');
+
+				sb.append(tokens.get(rnd.nextInt(tokens.size())));
+			}
+
+			generated.add(sb.toString());
+		}
+
+		return generated;
+	}
+
+	public long differing()
+	{
+		return differing;
+	}
+
+	public String report()
+	{
+		return String.format(Locale.ROOT,
+				"%d sentences, %d differing, reference %.2fs, candidate %.2fs%n",
+				sentences, differing, referenceNanos / 1e9, candidateNanos / 1e9);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String engine = "chunk";
+		int generate = 0;
+		long seed = 1;
+		int maxDiffs = Integer.MAX_VALUE;
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--engine"))
+				engine = args[++i];
+			else if(args[i].equals("--generate"))
+				generate = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--seed"))
+				seed = Long.parseLong(args[++i]);
+			else if(args[i].equals("--max-diffs"))
+				maxDiffs = Integer.parseInt(args[++i]);
+			else
+				files.add(args[i]);
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+		EquivalenceCheck check = new EquivalenceCheck(engine(engine), out);
+		check.setMaxDiffs(maxDiffs);
+
+		List<String> all = new ArrayList<String>();
+
+		if(files.isEmpty())
+			files.add("-");
+
+		for(String f : files)
+		{
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					f.equals("-") ? System.in : new FileInputStream(f), "UTF-8"));
+			String line;
+			int lineNr = 0;
+
+			while((line = br.readLine()) != null)
+			{
+				lineNr++;
+				check.check(f + ":" + lineNr, line);
+
+				if(generate > 0)
+					all.add(line);
+			}
+
+			br.close();
+		}
+
+		int nr = 0;
+		for(String line : generate(all, generate, seed))
+			check.check("generated:" + (++nr), line);
+
+		out.flush();
+		System.err.print(check.report());
+
+		if(check.differing() > maxDiffs)
+			System.err.println((check.differing() - maxDiffs) + " differences not shown");
+
+		System.exit(check.differing() == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,177 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Chunks new versions of the same documents again without parsing the
+ * sentences that haven't changed.
+ *
+ * For every document the fingerprint of each of its lines is kept along
+ * with the line's NPs. When a new version of the document comes in, only
+ * the lines whose fingerprint isn't among those of the previous version
+ * are tokenized and parsed, the NPs of the others are reused, and the
+ * result is spliced together in the order of the new version. Lines that
+ * were moved or repeated are found too, not only those that stayed put.
+ *
+ * The NPs of a line only depend on the line itself, so the result is the
+ * same as that of parse_input() on the whole new version. That doesn't
+ * hold for an adaptive SegmentPolicy, whose segments also depend on the
+ * timings of what was parsed before, the same as for parse_input().
+ *
+ * The fingerprints are 64 bit FNV-1a hashes of the lines, the lines
+ * themselves aren't kept. Not thread safe.
+ *
+ *   IncrementalChunker old new
+ *
+ * chunks the file 'old', then 'new' as its next version, prints the NPs of
+ * 'new' and how many lines had to be parsed.
+ */
+public class IncrementalChunker
+{
+	private static class Line
+	{
+		private long fingerprint = 0;
+		private String[] nps = null;
+
+		public Line(long fingerprint, String[] nps)
+		{
+			this.fingerprint = fingerprint;
+			this.nps = nps;
+		}
+	}
+
+	private Chunk npc = null;
+	private Map<String,Line[]> documents = new HashMap<String,Line[]>();
+
+	private long parsed = 0;
+	private long reused = 0;
+
+	public IncrementalChunker()
+	{
+		this(new Chunk());
+	}
+
+	public IncrementalChunker(Chunk npc)
+	{
+		this.npc = npc;
+	}
+
+	/**
+	 * The NPs of the lines of a document, as from parse_input(lines).
+	 * Replaces what was kept of the document's previous version.
+	 */
+	public String[] chunk(String document, String[] lines)
+	{
+		Map<Long,String[]> known = new HashMap<Long,String[]>();
+		Line[] previous = documents.get(document);
+
+		if(previous != null)
+			for(Line line : previous)
+				known.put(line.fingerprint, line.nps);
+
+		Line[] current = new Line[lines.length];
+		int total = 0;
+
+		for(int i = 0; i < lines.length; i++)
+		{
+			long fp = fingerprint(lines[i]);
+			String[] nps = known.get(fp);
+
+			if(nps == null)
+			{
+				nps = npc.parse_input(new String[] {lines[i]});
+				known.put(fp, nps);
+				parsed++;
+			}
+			else
+				reused++;
+
+			current[i] = new Line(fp, nps);
+			total += nps.length;
+		}
+
+		documents.put(document, current);
+
+		String[] result = new String[total];
+		int n = 0;
+
+		for(Line line : current)
+		{
+			System.arraycopy(line.nps, 0, result, n, line.nps.length);
+			n += line.nps.length;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Drops what is kept of a document
+	 */
+	public void forget(String document)
+	{
+		documents.remove(document);
+	}
+
+	/**
+	 * The number of lines that have been parsed
+	 */
+	public long parsed()
+	{
+		return parsed;
+	}
+
+	/**
+	 * The number of lines whose NPs were taken from a previous version
+	 */
+	public long reused()
+	{
+		return reused;
+	}
+
+	static long fingerprint(String line)
+	{
+		long h = 0xcbf29ce484222325L;
+
+		for(int i = 0; i < line.length(); i++)
+		{
+			h ^= line.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		return h;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		IncrementalChunker ic = new IncrementalChunker();
+
+		ic.chunk("doc", read(args[0]));
+		long before = ic.parsed();
+
+		long start = System.nanoTime();
+		String[] nps = ic.chunk("doc", read(args[1]));
+		long time = System.nanoTime() - start;
+
+		PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+		for(String np : nps)
+			out.println(np);
+
+		System.err.printf(Locale.ROOT, "%d lines parsed, %d reused, %.1f ms%n",
+				ic.parsed() - before, ic.reused(), time / 1e6);
+	}
+
+	private static String[] read(String file) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		String line;
+
+		while((line = br.readLine()) != null)
+			lines.add(line);
+
+		br.close();
+		return lines.toArray(new String[lines.size()]);
+	}
+}
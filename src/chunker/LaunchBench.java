@@ -0,0 +1,186 @@
+package chunker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Measures what it costs to start a chunker process for a single small
+ * document: the time until the first NP is printed, the time until the
+ * process exits and its peak RSS. Used by native/bench.sh to compare the
+ * native image with the JVM launcher.
+ *
+ *   LaunchBench [--runs N] document command... [-- command...]...
+ *
+ * The document is appended to each command. Peak RSS is read from
+ * VmHWM in /proc, so it is only reported on Linux. The outputs of all
+ * commands are also compared, since a native image that chunks
+ * differently isn't much use however fast it starts.
+ */
+public class LaunchBench
+{
+	private static class Result
+	{
+		private long firstNanos = -1;
+		private long exitNanos = 0;
+		private long peakKB = -1;
+		private byte[] output = null;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int runs = 20;
+		String document = null;
+		List<List<String>> commands = new ArrayList<List<String>>();
+		List<String> command = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(document == null && args[i].equals("--runs"))
+				runs = Integer.parseInt(args[++i]);
+			else if(document == null)
+				document = args[i];
+			else if(args[i].equals("--"))
+			{
+				commands.add(command);
+				command = new ArrayList<String>();
+			}
+			else
+				command.add(args[i]);
+		}
+
+		commands.add(command);
+
+		byte[] expected = null;
+		boolean differ = false;
+
+		System.out.printf(Locale.ROOT, "%12s %10s %10s  %s%n", "first NP ms", "exit ms", "peak MB", "command");
+
+		for(List<String> cmd : commands)
+		{
+			cmd.add(document);
+
+			long[] first = new long[runs];
+			long[] exit = new long[runs];
+			long peak = -1;
+
+			for(int r = 0; r < runs; r++)
+			{
+				Result res = run(cmd);
+				first[r] = res.firstNanos;
+				exit[r] = res.exitNanos;
+				peak = Math.max(peak, res.peakKB);
+
+				if(expected == null)
+					expected = res.output;
+				else if(!Arrays.equals(expected, res.output))
+					differ = true;
+			}
+
+			System.out.printf(Locale.ROOT, "%12.1f %10.1f %10s  %s%n",
+					median(first) / 1e6, median(exit) / 1e6,
+					peak < 0 ? "-" : String.format(Locale.ROOT, "%.1f", peak / 1024.0),
+					String.join(" ", cmd));
+		}
+
+		if(differ)
+		{
+			System.err.println("The commands gave different NPs");
+			System.exit(1);
+		}
+	}
+
+	private static Result run(List<String> cmd) throws Exception
+	{
+		final Result res = new Result();
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+
+		long start = System.nanoTime();
+		final Process p = pb.start();
+		final Path status = Paths.get("/proc/" + p.pid() + "/status");
+
+		Thread poller = new Thread()
+		{
+			public void run()
+			{
+				while(p.isAlive())
+				{
+					long kb = peakKB(status);
+					if(kb > res.peakKB)
+						res.peakKB = kb;
+
+					try
+					{
+						Thread.sleep(1);
+					}
+					catch(InterruptedException e)
+					{
+						return;
+					}
+				}
+			}
+		};
+		poller.setDaemon(true);
+		poller.start();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = p.getInputStream();
+		byte[] buf = new byte[8192];
+		int n;
+
+		while((n = in.read(buf)) > 0)
+		{
+			if(res.firstNanos < 0)
+			{
+				for(int i = 0; i < n; i++)
+				{
+					if(buf[i] == '\n')
+					{
+						res.firstNanos = System.nanoTime() - start;
+						break;
+					}
+				}
+			}
+
+			out.write(buf, 0, n);
+		}
+
+		p.waitFor();
+		res.exitNanos = System.nanoTime() - start;
+		poller.join();
+
+		if(res.firstNanos < 0)
+			res.firstNanos = res.exitNanos;
+
+		res.output = out.toByteArray();
+		return res;
+	}
+
+	/**
+	 * The VmHWM of a process in kB, or -1 if it can't be read
+	 */
+	private static long peakKB(Path status)
+	{
+		try
+		{
+			for(String line : Files.readAllLines(status, StandardCharsets.ISO_8859_1))
+				if(line.startsWith("VmHWM:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+		}
+		catch(IOException e)
+		{
+			// The process has exited or there is no /proc
+		}
+
+		return -1;
+	}
+
+	private static long median(long[] values)
+	{
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
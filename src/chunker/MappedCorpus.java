@@ -0,0 +1,303 @@
+package chunker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.*;
+
+/**
+ * A single large corpus file as a parallel stream of lines.
+ *
+ * The file is memory mapped, and its lines() spliterator splits by byte
+ * range: the middle of the range is moved forward to just after the next
+ * newline, so every line belongs to exactly one part. Each part maps its
+ * own range in windows of at most WINDOW bytes, and no further than the
+ * end of the range or, if the range ends inside a line, that line's
+ * newline. It remaps at the start of a line that doesn't fit in the
+ * current window, so neither the heap nor the mapped address space grows
+ * with the size of the file.
+ *
+ * Collecting a parallel stream in order has to keep the results of the
+ * parts that finish early, which for a whole file could be most of it.
+ * So main() chunks the file one region at a time: the region is chunked
+ * in parallel and printed in order before the next one is started.
+ *
+ *   MappedCorpus [--threads N] [--region MB] file
+ */
+public class MappedCorpus implements Closeable
+{
+	private static final long WINDOW = 1L << 28;
+	// Parts smaller than this aren't split further
+	private static final long MIN_SPLIT = 1L << 18;
+
+	private RandomAccessFile file = null;
+	private FileChannel channel = null;
+	private long size = 0;
+
+	public MappedCorpus(File f) throws IOException
+	{
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		size = channel.size();
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * The position just after the first newline at or after 'pos', or the
+	 * size of the file if there is none
+	 */
+	public long nextLine(long pos) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.allocate(1 << 16);
+
+		while(pos < size)
+		{
+			bb.clear();
+			int n = channel.read(bb, pos);
+			if(n <= 0)
+				break;
+
+			for(int i = 0; i < n; i++)
+				if(bb.get(i) == '\n')
+					return pos + i + 1;
+
+			pos += n;
+		}
+
+		return size;
+	}
+
+	/**
+	 * The lines starting in [from, to), 'from' and 'to' must be at the
+	 * start of a line
+	 */
+	public Spliterator<String> spliterator(long from, long to)
+	{
+		return new LineSpliterator(from, Math.min(to, size));
+	}
+
+	public Stream<String> lines(boolean parallel)
+	{
+		return StreamSupport.stream(spliterator(0, size), parallel);
+	}
+
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	private class LineSpliterator implements Spliterator<String>
+	{
+		private long pos = 0;
+		private long end = 0;
+
+		private MappedByteBuffer window = null;
+		private long windowStart = 0;
+		private byte[] buf = new byte[256];
+
+		public LineSpliterator(long pos, long end)
+		{
+			this.pos = pos;
+			this.end = end;
+		}
+
+		public boolean tryAdvance(Consumer<? super String> action)
+		{
+			if(pos >= end)
+				return false;
+
+			action.accept(readLine());
+			return true;
+		}
+
+		private String readLine()
+		{
+			while(true)
+			{
+				if(window == null || pos < windowStart || pos >= windowStart + window.limit())
+					map(pos, Math.min(WINDOW, end - pos));
+
+				int from = (int)(pos - windowStart);
+				int limit = window.limit();
+				int i = from;
+
+				while(i < limit && window.get(i) != '\n')
+					i++;
+
+				if(i == limit && windowStart + limit < size)
+				{
+					// The line goes on past the window, which starts at the
+					// line next time, and if it still does, or it goes on past
+					// the end, is extended to just after its newline
+					if(from > 0)
+						map(pos, Math.min(WINDOW, end - pos));
+					else
+						map(pos, lineEnd(pos) - pos);
+
+					continue;
+				}
+
+				int len = i - from;
+				pos += len + 1;
+
+				if(len > 0 && window.get(i - 1) == '\r')
+					len--;
+
+				if(buf.length < len)
+					buf = new byte[Math.max(len, buf.length * 2)];
+
+				ByteBuffer view = window.duplicate();
+				view.position(from);
+				view.get(buf, 0, len);
+
+				return new String(buf, 0, len, StandardCharsets.UTF_8);
+			}
+		}
+
+		/**
+		 * Just after the newline of the line at 'at', at most WINDOW bytes on
+		 */
+		private long lineEnd(long at)
+		{
+			try
+			{
+				long next = nextLine(at);
+				if(next - at > WINDOW)
+					throw new IOException("Line at " + at + " is longer than " + WINDOW + " bytes");
+
+				return next;
+			}
+			catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void map(long at, long length)
+		{
+			try
+			{
+				windowStart = at;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, at, length);
+			}
+			catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		public Spliterator<String> trySplit()
+		{
+			if(end - pos < MIN_SPLIT)
+				return null;
+
+			long cut;
+			try
+			{
+				cut = nextLine(pos + (end - pos) / 2);
+			}
+			catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+
+			if(cut >= end)
+				return null;
+
+			LineSpliterator prefix = new LineSpliterator(pos, cut);
+			pos = cut;
+			window = null;
+
+			return prefix;
+		}
+
+		public long estimateSize()
+		{
+			// In bytes, but it's only used to compare the parts
+			return end - pos;
+		}
+
+		public int characteristics()
+		{
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		long region = 64L << 20;
+		String file = null;
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--region"))
+				region = Long.parseLong(args[++i]) << 20;
+			else
+				file = args[i];
+		}
+
+		final ThreadLocal<Chunk> chunkers = new ThreadLocal<Chunk>()
+		{
+			@Override
+			protected Chunk initialValue()
+			{
+				return new Chunk();
+			}
+		};
+
+		final Function<String,String[]> chunk = new Function<String,String[]>()
+		{
+			public String[] apply(String line)
+			{
+				return chunkers.get().parse_input(new String[] {line});
+			}
+		};
+
+		final MappedCorpus corpus = new MappedCorpus(new File(file));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+		try
+		{
+			for(long from = 0; from < corpus.size(); )
+			{
+				final long start = from, to = corpus.nextLine(Math.min(corpus.size(), from + region) - 1);
+
+				List<String[]> nps = pool.submit(new Callable<List<String[]>>()
+				{
+					public List<String[]> call()
+					{
+						return StreamSupport.stream(corpus.spliterator(start, to), true)
+								.map(chunk).collect(Collectors.<String[]>toList());
+					}
+				}).get();
+
+				for(String[] line : nps)
+					for(String np : line)
+						out.println(np);
+
+				from = to;
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+			corpus.close();
+		}
+
+		out.flush();
+	}
+}
@@ -0,0 +1,711 @@
+package chunker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Counts NP frequencies without keeping the NPs on the Java heap.
+ *
+ * The NPs are stored as UTF-8 in an arena of direct ByteBuffer pages and
+ * looked up through an open addressing hash index, also off-heap. Each
+ * slot in the index is two longs, a reference into the arena (0 for an
+ * empty slot) and the count. Each arena entry is the hash, the length and
+ * the bytes of the NP.
+ *
+ * When the pages and the index allocated so far would grow past the memory
+ * cap, the entries are sorted and spilled to a run file on disk, and the
+ * counter starts over with the same pages and an index of the initial
+ * size. The index never takes more than half the cap, so every run holds
+ * many entries, nor more than MAX_SLOTS slots, so that its offsets fit in
+ * an int. merge() then does a k-way merge of the runs and what is left in
+ * memory, of any number of counters, summing the counts of equal NPs. It
+ * reads at most MAX_FAN_IN runs at a time, merging runs into longer ones
+ * first if there are more. Use one counter per thread and merge them at
+ * the end.
+ */
+public class NPCounter
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int PAGE_SIZE = 1 << 20;
+	private static final int SLOT_SIZE = 16;
+	private static final int MIN_PAGE_SIZE = 1 << 12;
+	private static final long MIN_MEMORY = 4 * MIN_PAGE_SIZE;
+	private static final int MAX_FAN_IN = 64;
+	// The most slots whose bytes, 1 GB, still fit in an int
+	private static final int MAX_SLOTS = 1 << 26;
+
+	private long memoryCap = 0;
+	private File spillDir = null;
+	private List<File> runs = new ArrayList<File>();
+
+	private List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+	private int pageSize = 0;
+	private int page = 0;
+	private int pageOffset = 0;
+	// The capacity of the pages up to and including 'page'
+	private long arenaBytes = 0;
+
+	private ByteBuffer index = null;
+	private int initialSlots = 0;
+	private int slots = 0;
+	private int used = 0;
+
+	public interface Handler
+	{
+		void handle(String np, long count) throws IOException;
+	}
+
+	/**
+	 * @param memoryCap bytes of arena and index to use before spilling
+	 * @param spillDir where to put the run files, null for java.io.tmpdir
+	 */
+	public NPCounter(long memoryCap, File spillDir)
+	{
+		if(memoryCap < MIN_MEMORY)
+			throw new IllegalArgumentException("The memory cap must be at least " + MIN_MEMORY + " bytes");
+
+		this.memoryCap = memoryCap;
+		this.spillDir = spillDir;
+
+		pageSize = (int)Math.min(PAGE_SIZE, memoryCap / 4);
+
+		initialSlots = 1 << 12;
+		while((long)initialSlots * SLOT_SIZE > memoryCap / 4)
+			initialSlots >>= 1;
+
+		slots = initialSlots;
+		index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+		pages.add(ByteBuffer.allocateDirect(pageSize));
+		arenaBytes = pageSize;
+	}
+
+	public void addAll(String[] nps) throws IOException
+	{
+		for(String np : nps)
+			add(np, 1);
+	}
+
+	public void add(String np, long n) throws IOException
+	{
+		byte[] b = np.getBytes(UTF8);
+		add(b, b.length, n);
+	}
+
+	/**
+	 * The number of distinct NPs currently held in memory
+	 */
+	public int size()
+	{
+		return used;
+	}
+
+	public int spilledRuns()
+	{
+		return runs.size();
+	}
+
+	private void add(byte[] b, int len, long n) throws IOException
+	{
+		int h = hash(b, len);
+		int mask = slots - 1;
+
+		for(int i = h & mask; ; i = (i + 1) & mask)
+		{
+			long ref = index.getLong(i * SLOT_SIZE);
+
+			if(ref == 0)
+			{
+				index.putLong(i * SLOT_SIZE, store(h, b, len));
+				index.putLong(i * SLOT_SIZE + 8, n);
+				used++;
+				break;
+			}
+
+			if(matches(ref, h, b, len))
+			{
+				index.putLong(i * SLOT_SIZE + 8, index.getLong(i * SLOT_SIZE + 8) + n);
+				return;
+			}
+		}
+
+		if(used * 2 > slots)
+		{
+			if(slots * 2 > MAX_SLOTS || (long)slots * 2 * SLOT_SIZE > memoryCap / 2)
+			{
+				spill();
+				return;
+			}
+
+			grow();
+		}
+
+		if(arenaBytes + (long)slots * SLOT_SIZE > memoryCap)
+			spill();
+	}
+
+	private static int hash(byte[] b, int len)
+	{
+		// FNV-1a, then spread the bits a bit for the power of two table
+		int h = 0x811c9dc5;
+		for(int i = 0; i < len; i++)
+			h = (h ^ (b[i] & 0xff)) * 0x01000193;
+
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Copies the NP into the arena and returns its reference
+	 */
+	private long store(int h, byte[] b, int len)
+	{
+		int size = 8 + len;
+
+		if(pageOffset + size > pages.get(page).capacity())
+		{
+			page++;
+			pageOffset = 0;
+
+			if(page == pages.size())
+				pages.add(ByteBuffer.allocateDirect(Math.max(pageSize, size)));
+			else if(pages.get(page).capacity() < size)
+				pages.set(page, ByteBuffer.allocateDirect(size));
+
+			arenaBytes += pages.get(page).capacity();
+		}
+
+		ByteBuffer p = pages.get(page);
+		p.putInt(pageOffset, h);
+		p.putInt(pageOffset + 4, len);
+		for(int i = 0; i < len; i++)
+			p.put(pageOffset + 8 + i, b[i]);
+
+		long ref = ((long)(page + 1) << 32) | pageOffset;
+
+		pageOffset += size;
+
+		return ref;
+	}
+
+	private ByteBuffer pageOf(long ref)
+	{
+		return pages.get((int)(ref >>> 32) - 1);
+	}
+
+	private static int offsetOf(long ref)
+	{
+		return (int)ref;
+	}
+
+	private boolean matches(long ref, int h, byte[] b, int len)
+	{
+		ByteBuffer p = pageOf(ref);
+		int off = offsetOf(ref);
+
+		if(p.getInt(off) != h || p.getInt(off + 4) != len)
+			return false;
+
+		for(int i = 0; i < len; i++)
+			if(p.get(off + 8 + i) != b[i])
+				return false;
+
+		return true;
+	}
+
+	private void grow()
+	{
+		int newSlots = slots * 2;
+		ByteBuffer newIndex = ByteBuffer.allocateDirect(newSlots * SLOT_SIZE);
+		int mask = newSlots - 1;
+
+		for(int i = 0; i < slots; i++)
+		{
+			long ref = index.getLong(i * SLOT_SIZE);
+			if(ref == 0)
+				continue;
+
+			int h = pageOf(ref).getInt(offsetOf(ref));
+			int j = h & mask;
+			while(newIndex.getLong(j * SLOT_SIZE) != 0)
+				j = (j + 1) & mask;
+
+			newIndex.putLong(j * SLOT_SIZE, ref);
+			newIndex.putLong(j * SLOT_SIZE + 8, index.getLong(i * SLOT_SIZE + 8));
+		}
+
+		index = newIndex;
+		slots = newSlots;
+	}
+
+	/**
+	 * Returns the indexes of all used slots, sorted on the NP bytes
+	 */
+	private int[] sortedSlots()
+	{
+		int[] order = new int[used];
+		int k = 0;
+
+		for(int i = 0; i < slots; i++)
+			if(index.getLong(i * SLOT_SIZE) != 0)
+				order[k++] = i;
+
+		sort(order, 0, k - 1);
+		return order;
+	}
+
+	private void sort(int[] a, int lo, int hi)
+	{
+		while(lo < hi)
+		{
+			int pivot = a[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+
+			while(i <= j)
+			{
+				while(compareSlots(a[i], pivot) < 0)
+					i++;
+				while(compareSlots(a[j], pivot) > 0)
+					j--;
+
+				if(i <= j)
+				{
+					int tmp = a[i];
+					a[i++] = a[j];
+					a[j--] = tmp;
+				}
+			}
+
+			// Recurse into the smaller half to keep the stack shallow
+			if(j - lo < hi - i)
+			{
+				sort(a, lo, j);
+				lo = i;
+			}
+			else
+			{
+				sort(a, i, hi);
+				hi = j;
+			}
+		}
+	}
+
+	private int compareSlots(int s1, int s2)
+	{
+		long r1 = index.getLong(s1 * SLOT_SIZE), r2 = index.getLong(s2 * SLOT_SIZE);
+		ByteBuffer p1 = pageOf(r1), p2 = pageOf(r2);
+		int o1 = offsetOf(r1), o2 = offsetOf(r2);
+		int l1 = p1.getInt(o1 + 4), l2 = p2.getInt(o2 + 4);
+
+		for(int i = 0; i < Math.min(l1, l2); i++)
+		{
+			int c = (p1.get(o1 + 8 + i) & 0xff) - (p2.get(o2 + 8 + i) & 0xff);
+			if(c != 0)
+				return c;
+		}
+
+		return l1 - l2;
+	}
+
+	private byte[] keyAt(int slot)
+	{
+		long ref = index.getLong(slot * SLOT_SIZE);
+		ByteBuffer p = pageOf(ref);
+		int off = offsetOf(ref);
+
+		byte[] b = new byte[p.getInt(off + 4)];
+		for(int i = 0; i < b.length; i++)
+			b[i] = p.get(off + 8 + i);
+
+		return b;
+	}
+
+	/**
+	 * Writes everything in memory to a sorted run file and starts over
+	 */
+	private void spill() throws IOException
+	{
+		File run = File.createTempFile("npcount", ".run", spillDir);
+		run.deleteOnExit();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run), 1 << 16));
+
+		try
+		{
+			for(int slot : sortedSlots())
+			{
+				byte[] key = keyAt(slot);
+				out.writeInt(key.length);
+				out.write(key);
+				out.writeLong(index.getLong(slot * SLOT_SIZE + 8));
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		runs.add(run);
+		clear();
+	}
+
+	private void clear()
+	{
+		if(slots > initialSlots)
+		{
+			slots = initialSlots;
+			index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+		}
+		else
+		{
+			for(int i = 0; i < slots * SLOT_SIZE; i += 8)
+				index.putLong(i, 0);
+		}
+
+		used = 0;
+		page = 0;
+		pageOffset = 0;
+		arenaBytes = pages.get(0).capacity();
+	}
+
+	/**
+	 * Merges the counts of all the counters and hands them to the handler
+	 * in UTF-8 byte order. The counters are emptied and their run files
+	 * deleted.
+	 */
+	public static void merge(List<NPCounter> counters, final Handler handler) throws IOException
+	{
+		LinkedList<File> runs = new LinkedList<File>();
+
+		for(NPCounter c : counters)
+		{
+			runs.addAll(c.runs);
+			c.runs.clear();
+		}
+
+		try
+		{
+			// Merge the oldest runs into one until the rest can be read at
+			// once, next to what the counters have in memory
+			while(runs.size() > 1 && runs.size() + counters.size() > MAX_FAN_IN)
+			{
+				List<File> merged = new ArrayList<File>();
+				List<Source> sources = new ArrayList<Source>();
+
+				while(!runs.isEmpty() && merged.size() < MAX_FAN_IN)
+				{
+					merged.add(runs.removeFirst());
+					sources.add(new RunSource(merged.get(merged.size()-1)));
+				}
+
+				File run = File.createTempFile("npcount", ".run", counters.get(0).spillDir);
+				run.deleteOnExit();
+				runs.add(run);
+
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(run), 1 << 16));
+
+				try
+				{
+					merge(sources, new KeyHandler()
+					{
+						public void handle(byte[] key, long count) throws IOException
+						{
+							out.writeInt(key.length);
+							out.write(key);
+							out.writeLong(count);
+						}
+					});
+				}
+				finally
+				{
+					out.close();
+
+					for(File f : merged)
+						f.delete();
+				}
+			}
+
+			List<Source> sources = new ArrayList<Source>();
+			for(File run : runs)
+				sources.add(new RunSource(run));
+			for(NPCounter c : counters)
+				sources.add(c.new MemorySource());
+
+			merge(sources, new KeyHandler()
+			{
+				public void handle(byte[] key, long count) throws IOException
+				{
+					handler.handle(new String(key, UTF8), count);
+				}
+			});
+		}
+		finally
+		{
+			for(File run : runs)
+				run.delete();
+
+			for(NPCounter c : counters)
+				c.clear();
+		}
+	}
+
+	private interface KeyHandler
+	{
+		void handle(byte[] key, long count) throws IOException;
+	}
+
+	/**
+	 * The k-way merge of the sources, which are closed at the end
+	 */
+	private static void merge(List<Source> sources, KeyHandler handler) throws IOException
+	{
+		PriorityQueue<Source> queue = new PriorityQueue<Source>(11, new Comparator<Source>()
+		{
+			public int compare(Source s1, Source s2)
+			{
+				return compareBytes(s1.key, s2.key);
+			}
+		});
+
+		try
+		{
+			for(Source s : sources)
+				if(s.next())
+					queue.add(s);
+
+			while(!queue.isEmpty())
+			{
+				Source s = queue.poll();
+				byte[] key = s.key;
+				long count = s.count;
+
+				if(s.next())
+					queue.add(s);
+
+				while(!queue.isEmpty() && compareBytes(queue.peek().key, key) == 0)
+				{
+					Source same = queue.poll();
+					count += same.count;
+
+					if(same.next())
+						queue.add(same);
+				}
+
+				handler.handle(key, count);
+			}
+		}
+		finally
+		{
+			for(Source s : sources)
+				s.close();
+		}
+	}
+
+	private static int compareBytes(byte[] b1, byte[] b2)
+	{
+		for(int i = 0; i < Math.min(b1.length, b2.length); i++)
+		{
+			int c = (b1[i] & 0xff) - (b2[i] & 0xff);
+			if(c != 0)
+				return c;
+		}
+
+		return b1.length - b2.length;
+	}
+
+	private static abstract class Source
+	{
+		protected byte[] key = null;
+		protected long count = 0;
+
+		public abstract boolean next() throws IOException;
+
+		public void close() throws IOException
+		{
+		}
+	}
+
+	private static class RunSource extends Source
+	{
+		private DataInputStream in = null;
+
+		public RunSource(File run) throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+		}
+
+		public boolean next() throws IOException
+		{
+			int len;
+
+			try
+			{
+				len = in.readInt();
+			}
+			catch(EOFException e)
+			{
+				return false;
+			}
+
+			key = new byte[len];
+			in.readFully(key);
+			count = in.readLong();
+
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	private class MemorySource extends Source
+	{
+		private int[] order = sortedSlots();
+		private int pos = 0;
+
+		public boolean next()
+		{
+			if(pos == order.length)
+				return false;
+
+			key = keyAt(order[pos]);
+			count = index.getLong(order[pos] * SLOT_SIZE + 8);
+			pos++;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Counts the NPs of tagged text files (or stdin) using a number of
+	 * threads and prints 'count<TAB>NP' lines
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		long memory = 256L << 20;
+		File spillDir = null;
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--memory-mb"))
+				memory = Long.parseLong(args[++i]) << 20;
+			else if(args[i].equals("--spill-dir"))
+				spillDir = new File(args[++i]);
+			else
+				files.add(args[i]);
+		}
+
+		final List<Reader> inputs = new ArrayList<Reader>();
+		if(files.isEmpty())
+			inputs.add(new InputStreamReader(System.in, UTF8));
+		for(String f : files)
+			inputs.add(new InputStreamReader(new FileInputStream(f), UTF8));
+
+		final LineSource lines = new LineSource(inputs);
+		final List<NPCounter> counters = new ArrayList<NPCounter>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> workers = new ArrayList<Future<Void>>();
+
+		for(int i = 0; i < threads; i++)
+		{
+			final NPCounter counter = new NPCounter(memory / threads, spillDir);
+			counters.add(counter);
+
+			workers.add(pool.submit(new Callable<Void>()
+			{
+				public Void call() throws IOException
+				{
+					Chunk npc = new Chunk();
+
+					String[] batch;
+					while((batch = lines.next(256)) != null)
+						counter.addAll(npc.parse_input(batch));
+
+					return null;
+				}
+			}));
+		}
+
+		pool.shutdown();
+
+		for(Future<Void> f : workers)
+		{
+			try
+			{
+				f.get();
+			}
+			catch(ExecutionException e)
+			{
+				pool.shutdownNow();
+				throw new Exception("Counting failed", e.getCause());
+			}
+		}
+
+		final PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+		merge(counters, new Handler()
+		{
+			public void handle(String np, long count)
+			{
+				out.print(count);
+				out.print('\t');
+				out.println(np);
+			}
+		});
+
+		out.flush();
+	}
+
+	/**
+	 * Hands out batches of lines from a list of readers to many threads
+	 */
+	private static class LineSource
+	{
+		private List<Reader> inputs = null;
+		private BufferedReader current = null;
+
+		public LineSource(List<Reader> inputs)
+		{
+			this.inputs = new LinkedList<Reader>(inputs);
+		}
+
+		public synchronized String[] next(int max) throws IOException
+		{
+			List<String> batch = new ArrayList<String>(max);
+
+			while(batch.size() < max)
+			{
+				if(current == null)
+				{
+					if(inputs.isEmpty())
+						break;
+
+					current = new BufferedReader(inputs.remove(0));
+				}
+
+				String line = current.readLine();
+
+				if(line == null)
+				{
+					current.close();
+					current = null;
+					continue;
+				}
+
+				batch.add(line);
+			}
+
+			return batch.isEmpty() ? null : batch.toArray(new String[batch.size()]);
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package chunker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Reads files written by NPSpanWriter through memory mapping.
+ *
+ * A MappedByteBuffer can't be larger than 2GB, so bigger files are mapped
+ * as a number of windows. The windows overlap by the size of the largest
+ * block, so every block is fully inside the window its offset falls in.
+ * Looking up a document is a binary search in the (mapped) index followed
+ * by decoding that document's block only.
+ */
+public class NPSpanReader implements Closeable
+{
+	private static final long WINDOW = 1L << 30;
+
+	private RandomAccessFile file = null;
+	private MappedByteBuffer[] windows = null;
+
+	private long indexOffset = 0;
+	private int documents = 0;
+
+	public NPSpanReader(File f) throws IOException
+	{
+		file = new RandomAccessFile(f, "r");
+		FileChannel ch = file.getChannel();
+		long size = ch.size();
+
+		if(size < 8 + NPSpanWriter.FOOTER_SIZE)
+			throw new IOException(f + " is too small to be an NP span file");
+
+		ByteBuffer footer = ch.map(FileChannel.MapMode.READ_ONLY,
+				size - NPSpanWriter.FOOTER_SIZE, NPSpanWriter.FOOTER_SIZE);
+
+		indexOffset = footer.getLong();
+		documents = footer.getInt();
+		int maxBlock = footer.getInt();
+
+		if(footer.getInt() != NPSpanWriter.MAGIC)
+			throw new IOException(f + " isn't an NP span file");
+
+		int n = (int)((size + WINDOW - 1) / WINDOW);
+		windows = new MappedByteBuffer[n];
+		for(int i = 0; i < n; i++)
+		{
+			long start = i * WINDOW;
+			long len = Math.min(WINDOW + maxBlock + 20, size - start);
+			windows[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+		}
+
+		ByteBuffer header = at(0);
+		if(header.getInt() != NPSpanWriter.MAGIC)
+			throw new IOException(f + " isn't an NP span file");
+		if(header.getInt() != NPSpanWriter.VERSION)
+			throw new IOException(f + " has an unsupported version");
+	}
+
+	/**
+	 * A view of the file starting at 'offset'
+	 */
+	private ByteBuffer at(long offset)
+	{
+		ByteBuffer bb = windows[(int)(offset / WINDOW)].duplicate();
+		bb.position((int)(offset % WINDOW));
+		return bb;
+	}
+
+	public int documents()
+	{
+		return documents;
+	}
+
+	/**
+	 * The id of the i:th document, in id order
+	 */
+	public long documentId(int i)
+	{
+		return at(indexOffset + (long)i * 20).getLong();
+	}
+
+	/**
+	 * Returns the document with the given id, or null if there is none
+	 */
+	public Document get(long docId)
+	{
+		int lo = 0, hi = documents - 1;
+
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			ByteBuffer entry = at(indexOffset + (long)mid * 20);
+			long id = entry.getLong();
+
+			if(id < docId)
+				lo = mid + 1;
+			else if(id > docId)
+				hi = mid - 1;
+			else
+				return new Document(id, at(entry.getLong()));
+		}
+
+		return null;
+	}
+
+	public void close() throws IOException
+	{
+		windows = null;
+		file.close();
+	}
+
+	public static class Document
+	{
+		private long id = 0;
+		private int[] sentenceIds = null;
+		private int[][] spans = null;
+
+		private Document(long id, ByteBuffer bb)
+		{
+			this.id = id;
+
+			int n = readVarint(bb);
+			sentenceIds = new int[n];
+			spans = new int[n][];
+
+			int sentence = 0;
+			for(int i = 0; i < n; i++)
+			{
+				sentence += readVarint(bb);
+				sentenceIds[i] = sentence;
+
+				int[] s = new int[readVarint(bb) * 2];
+				int prevEnd = 0;
+
+				for(int j = 0; j < s.length; j += 2)
+				{
+					int z = readVarint(bb);
+					s[j] = prevEnd + ((z >>> 1) ^ -(z & 1));
+					s[j+1] = s[j] + readVarint(bb);
+					prevEnd = s[j+1];
+				}
+
+				spans[i] = s;
+			}
+		}
+
+		public long id()
+		{
+			return id;
+		}
+
+		/**
+		 * The number of sentences with at least one NP
+		 */
+		public int sentences()
+		{
+			return sentenceIds.length;
+		}
+
+		public int sentenceId(int i)
+		{
+			return sentenceIds[i];
+		}
+
+		/**
+		 * Start and end (exclusive) pairs of the NPs in the i:th sentence
+		 */
+		public int[] spans(int i)
+		{
+			return spans[i];
+		}
+	}
+
+	private static int readVarint(ByteBuffer bb)
+	{
+		int n = 0, shift = 0;
+		byte b;
+
+		do
+		{
+			b = bb.get();
+			n |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while((b & 0x80) != 0);
+
+		return n;
+	}
+
+	/**
+	 * Prints the spans of all documents, or of the given ones
+	 *
+	 *   NPSpanReader file.nps [docId]...
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		NPSpanReader r = new NPSpanReader(new File(args[0]));
+		List<Long> ids = new ArrayList<Long>();
+
+		for(int i = 1; i < args.length; i++)
+			ids.add(Long.parseLong(args[i]));
+
+		if(ids.isEmpty())
+			for(int i = 0; i < r.documents(); i++)
+				ids.add(r.documentId(i));
+
+		for(long id : ids)
+		{
+			Document d = r.get(id);
+			if(d == null)
+			{
+				System.out.println("doc " + id + " not found");
+				continue;
+			}
+
+			for(int i = 0; i < d.sentences(); i++)
+			{
+				StringBuilder sb = new StringBuilder();
+				sb.append(id).append('\t').append(d.sentenceId(i));
+
+				int[] s = d.spans(i);
+				for(int j = 0; j < s.length; j += 2)
+					sb.append('\t').append(s[j]).append('-').append(s[j+1]);
+
+				System.out.println(sb);
+			}
+		}
+
+		r.close();
+	}
+}
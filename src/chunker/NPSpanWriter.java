@@ -0,0 +1,204 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes chunker results in a compact binary format, see NPSpanReader for
+ * reading it back.
+ *
+ * Instead of the NP strings, each NP is stored as the span of tokens it
+ * covers in its sentence (as returned by Chunk.parse_spans()). The file
+ * consists of one block per document followed by an index of the blocks:
+ *
+ *   header:   "NPSP" version(int)
+ *   block:    sentences(varint) then per sentence
+ *               id delta(varint) nps(varint) then per NP
+ *                 start delta from previous end(varint) length(varint)
+ *   index:    per document id(long) offset(long) length(int),
+ *             sorted on id
+ *   footer:   index offset(long) documents(int) max block length(int)
+ *             "NPSP"
+ *
+ * Sentence ids must be increasing within a document, and document ids
+ * must be unique.
+ */
+public class NPSpanWriter implements Closeable
+{
+	static final int MAGIC = 0x4e505350;
+	static final int VERSION = 1;
+	static final int FOOTER_SIZE = 8 + 4 + 4 + 4;
+
+	private DataOutputStream out = null;
+	private long offset = 0;
+
+	private ByteArrayOutputStream block = new ByteArrayOutputStream();
+	private long docId = -1;
+	private boolean inDocument = false;
+	private int sentences = 0;
+	private int lastSentence = 0;
+
+	private List<long[]> index = new ArrayList<long[]>();
+	private Set<Long> docIds = new HashSet<Long>();
+	private int maxBlock = 0;
+
+	public NPSpanWriter(OutputStream os) throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		offset = 8;
+	}
+
+	public void beginDocument(long id)
+	{
+		if(inDocument)
+			throw new IllegalStateException("Document " + docId + " hasn't been ended");
+		if(!docIds.add(id))
+			throw new IllegalArgumentException("Duplicate document id " + id);
+
+		docId = id;
+		inDocument = true;
+		sentences = 0;
+		lastSentence = 0;
+		block.reset();
+	}
+
+	/**
+	 * Adds a sentence and the spans of its NPs, start and end (exclusive)
+	 * pairs as from Chunk.parse_spans()
+	 */
+	public void addSentence(int sentenceId, int[] spans)
+	{
+		if(!inDocument)
+			throw new IllegalStateException("No document has been begun");
+		if(sentences > 0 && sentenceId <= lastSentence)
+			throw new IllegalArgumentException("Sentence ids must be increasing");
+
+		writeVarint(block, sentences == 0 ? sentenceId : sentenceId - lastSentence);
+		writeVarint(block, spans.length / 2);
+
+		int prevEnd = 0;
+		for(int i = 0; i+1 < spans.length; i += 2)
+		{
+			// NPs may nest, so the start can be before the previous end
+			writeVarint(block, zigzag(spans[i] - prevEnd));
+			writeVarint(block, spans[i+1] - spans[i]);
+			prevEnd = spans[i+1];
+		}
+
+		sentences++;
+		lastSentence = sentenceId;
+	}
+
+	public void endDocument() throws IOException
+	{
+		if(!inDocument)
+			throw new IllegalStateException("No document has been begun");
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		writeVarint(header, sentences);
+
+		int length = header.size() + block.size();
+		index.add(new long[] {docId, offset, length});
+		maxBlock = Math.max(maxBlock, length);
+
+		header.writeTo(out);
+		block.writeTo(out);
+		offset += length;
+
+		inDocument = false;
+	}
+
+	public void close() throws IOException
+	{
+		if(inDocument)
+			endDocument();
+
+		Collections.sort(index, new Comparator<long[]>()
+		{
+			public int compare(long[] a, long[] b)
+			{
+				return Long.compare(a[0], b[0]);
+			}
+		});
+
+		long indexOffset = offset;
+		for(long[] entry : index)
+		{
+			out.writeLong(entry[0]);
+			out.writeLong(entry[1]);
+			out.writeInt((int)entry[2]);
+		}
+
+		out.writeLong(indexOffset);
+		out.writeInt(index.size());
+		out.writeInt(maxBlock);
+		out.writeInt(MAGIC);
+		out.close();
+	}
+
+	static int zigzag(int n)
+	{
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream os, int n)
+	{
+		while((n & ~0x7f) != 0)
+		{
+			os.write((n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+
+		os.write(n);
+	}
+
+	/**
+	 * Chunks tagged text files into a span file, one document per input
+	 * file numbered from 0 and one sentence per line numbered from 0
+	 *
+	 *   NPSpanWriter out.nps in1.txt in2.txt ...
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 1)
+		{
+			System.err.println("Usage: NPSpanWriter <output> <tagged file>...");
+			System.exit(1);
+		}
+
+		Chunk npc = new Chunk();
+		NPSpanWriter w = new NPSpanWriter(new FileOutputStream(args[0]));
+
+		try
+		{
+			for(int i = 1; i < args.length; i++)
+			{
+				BufferedReader br = new BufferedReader(new InputStreamReader(
+						new FileInputStream(args[i]), "UTF-8"));
+
+				w.beginDocument(i-1);
+
+				String line;
+				int sentence = 0;
+				while((line = br.readLine()) != null)
+				{
+					int[] spans = npc.parse_spans(line);
+
+					if(spans.length > 0)
+						w.addSentence(sentence, spans);
+
+					sentence++;
+				}
+
+				w.endDocument();
+				br.close();
+			}
+		}
+		finally
+		{
+			w.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package chunker;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free ring buffer for one producer and any number of
+ * consumers.
+ *
+ * The producer publishes by moving 'tail', consumers claim by moving
+ * 'head' with a CAS. A consumer reads its slots before claiming them, so
+ * the producer can never overwrite a slot that is still being read. Both
+ * sides work in batches to keep the number of volatile writes and CASes
+ * per element low.
+ *
+ * When the producer is done it calls close(), after which poll() returns
+ * -1 once the buffer is empty. When either side fails it calls abort(),
+ * after which both sides get a CancellationException instead of waiting
+ * for each other.
+ */
+public class RingBuffer<T>
+{
+	private AtomicReferenceArray<T> slots = null;
+	private int mask = 0;
+
+	private AtomicLong head = new AtomicLong();
+	private volatile long tail = 0;
+	private volatile boolean closed = false;
+	private volatile boolean aborted = false;
+
+	// Only touched by the producer
+	private long cachedHead = 0;
+
+	// Statistics
+	private AtomicLong maxDepth = new AtomicLong();
+	private volatile long producerWaits = 0;
+	private AtomicLong consumerWaits = new AtomicLong();
+
+	public RingBuffer(int capacity)
+	{
+		int size = 1;
+		while(size < capacity)
+			size <<= 1;
+
+		slots = new AtomicReferenceArray<T>(size);
+		mask = size - 1;
+	}
+
+	public int capacity()
+	{
+		return mask + 1;
+	}
+
+	public int size()
+	{
+		return (int)Math.max(0, tail - head.get());
+	}
+
+	/**
+	 * Adds all elements in the list, waiting for room when the buffer is
+	 * full. Only to be called from the producer thread.
+	 */
+	public void put(List<T> batch) throws InterruptedException
+	{
+		int i = 0;
+		int idle = 0;
+
+		while(i < batch.size())
+		{
+			checkAborted();
+
+			long t = tail;
+
+			if(t - cachedHead >= capacity())
+			{
+				cachedHead = head.get();
+
+				if(t - cachedHead >= capacity())
+				{
+					if(idle == 0)
+						producerWaits++;
+
+					idle = backoff(idle);
+					continue;
+				}
+			}
+
+			idle = 0;
+
+			int n = (int)Math.min(batch.size() - i, capacity() - (t - cachedHead));
+			for(int j = 0; j < n; j++)
+				slots.lazySet((int)((t + j) & mask), batch.get(i + j));
+
+			// Publishes the slots written above
+			tail = t + n;
+			i += n;
+
+			updateMaxDepth(t + n - head.get());
+		}
+	}
+
+	public void put(T element) throws InterruptedException
+	{
+		put(Collections.singletonList(element));
+	}
+
+	/**
+	 * Moves at most 'max' elements into 'out', waiting until there is at
+	 * least one. Returns the number of elements moved, or -1 if the buffer
+	 * is closed and empty.
+	 */
+	public int poll(List<T> out, int max) throws InterruptedException
+	{
+		int idle = 0;
+
+		while(true)
+		{
+			int n = tryPoll(out, max);
+
+			if(n > 0)
+				return n;
+
+			if(closed && head.get() >= tail)
+				return -1;
+
+			if(idle == 0)
+				noteEmpty();
+
+			idle = backoff(idle);
+		}
+	}
+
+	/**
+	 * Like poll() but returns 0 instead of waiting
+	 */
+	public int tryPoll(List<T> out, int max)
+	{
+		checkAborted();
+
+		while(true)
+		{
+			long h = head.get();
+			long t = tail;
+
+			int n = (int)Math.min(max, t - h);
+			if(n <= 0)
+				return 0;
+
+			int added = out.size();
+			for(int j = 0; j < n; j++)
+				out.add(slots.get((int)((h + j) & mask)));
+
+			if(head.compareAndSet(h, h + n))
+				return n;
+
+			// Someone else got there first, forget what we read and retry
+			while(out.size() > added)
+				out.remove(out.size()-1);
+		}
+	}
+
+	/**
+	 * The next element without taking it, null if the buffer is empty.
+	 * With more than one consumer it may have been taken, or replaced by a
+	 * later element, by the time this returns.
+	 */
+	public T peek()
+	{
+		checkAborted();
+
+		long h = head.get();
+		return h < tail ? slots.get((int)(h & mask)) : null;
+	}
+
+	/**
+	 * Counts a consumer finding the buffer empty, for consumers that wait
+	 * on their own instead of in poll()
+	 */
+	public void noteEmpty()
+	{
+		consumerWaits.incrementAndGet();
+	}
+
+	public void close()
+	{
+		closed = true;
+	}
+
+	public void abort()
+	{
+		aborted = true;
+	}
+
+	private void checkAborted()
+	{
+		if(aborted)
+			throw new CancellationException("The buffer was aborted");
+	}
+
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	public boolean isDrained()
+	{
+		return closed && head.get() >= tail;
+	}
+
+	public long maxDepth()
+	{
+		return maxDepth.get();
+	}
+
+	/**
+	 * The number of times the producer found the buffer full
+	 */
+	public long producerWaits()
+	{
+		return producerWaits;
+	}
+
+	/**
+	 * The number of times a consumer found the buffer empty
+	 */
+	public long consumerWaits()
+	{
+		return consumerWaits.get();
+	}
+
+	private void updateMaxDepth(long depth)
+	{
+		long max = maxDepth.get();
+		while(depth > max && !maxDepth.compareAndSet(max, depth))
+			max = maxDepth.get();
+	}
+
+	/**
+	 * Spin a little, then yield, then park for gradually longer
+	 */
+	static int backoff(int idle) throws InterruptedException
+	{
+		if(Thread.interrupted())
+			throw new InterruptedException();
+
+		if(idle < 64)
+			Thread.onSpinWait();
+		else if(idle < 128)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(Math.min(1000L << Math.min(idle - 128, 10), 1000000L));
+
+		return idle + 1;
+	}
+}
@@ -0,0 +1,236 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Counts what each grammar rule costs the Earley parser, set on a Chunk
+ * with setProfile(). Per rule it counts
+ *
+ *   items      items of the rule in the states, summed over all states
+ *   max        the most items of the rule in a single state
+ *   predicted  items added by predicting the rule
+ *   completed  items of the rule that were completed
+ *   scanned    items of the rule moved over a token
+ *   won, lost  how often the rule was picked or passed over when
+ *              ambiguity() chose between derivations
+ *   pruned     items of the rule left out of the states by the lookahead
+ *   beamed     items of the rule that didn't fit in the beam, see
+ *              Chunk.setBeamWidth()
+ *
+ * States that are built again after an error are counted again, since
+ * that is work the parser does. Not thread safe, use one profile per
+ * Chunk and add() them together.
+ *
+ *   RuleProfile [--backend earley|np_earley] [--beam K] [--sort column] [--top N] file...
+ *
+ * chunks the files and prints the rules ranked by a column, by default
+ * 'items'. Segments that Chunk skips since they can't have an NP aren't
+ * counted in the columns.
+ */
+public class RuleProfile
+{
+	static final String[] COLUMNS =
+		{"items", "max", "predicted", "completed", "scanned", "won", "lost", "pruned", "beamed"};
+
+	private String[] rules = null;
+
+	// By column, then by rule id
+	private long[][] counts = null;
+	private int[] inState = null;
+
+	private long states = 0;
+	private long segments = 0;
+
+	public RuleProfile(Chunk grammar)
+	{
+		rules = new String[grammar.ruleCount()];
+		for(int id = 0; id < rules.length; id++)
+			rules[id] = grammar.ruleText(id);
+
+		counts = new long[COLUMNS.length][rules.length];
+		inState = new int[rules.length];
+	}
+
+	int ruleCount()
+	{
+		return rules.length;
+	}
+
+	/*
+	 * Called by the parser
+	 */
+
+	void segment()
+	{
+		segments++;
+	}
+
+	void predicted(int id)
+	{
+		counts[2][id]++;
+	}
+
+	void completed(int id)
+	{
+		counts[3][id]++;
+	}
+
+	void scanned(int id)
+	{
+		counts[4][id]++;
+	}
+
+	void resolved(int winner, int loser)
+	{
+		counts[5][winner]++;
+		counts[6][loser]++;
+	}
+
+	void pruned(int id)
+	{
+		counts[7][id]++;
+	}
+
+	void beamed(int id)
+	{
+		counts[8][id]++;
+	}
+
+	/**
+	 * An item of the state that was just built, endState() follows the
+	 * last one
+	 */
+	void item(int id)
+	{
+		inState[id]++;
+	}
+
+	void endState()
+	{
+		for(int id = 0; id < inState.length; id++)
+		{
+			counts[0][id] += inState[id];
+			counts[1][id] = Math.max(counts[1][id], inState[id]);
+			inState[id] = 0;
+		}
+
+		states++;
+	}
+
+	/**
+	 * Adds the counts of another profile of the same grammar
+	 */
+	public void add(RuleProfile other)
+	{
+		for(int c = 0; c < COLUMNS.length; c++)
+			for(int id = 0; id < rules.length; id++)
+				if(c == 1)
+					counts[c][id] = Math.max(counts[c][id], other.counts[c][id]);
+				else
+					counts[c][id] += other.counts[c][id];
+
+		states += other.states;
+		segments += other.segments;
+	}
+
+	/**
+	 * Writes the 'top' rules ranked by the column 'sort', all if top < 0
+	 */
+	public void report(PrintStream out, String sort, int top)
+	{
+		final int column = Arrays.asList(COLUMNS).indexOf(sort);
+		if(column < 0)
+			throw new IllegalArgumentException("No column '" + sort + "', use one of " +
+					Arrays.toString(COLUMNS));
+
+		Integer[] order = new Integer[rules.length];
+		for(int id = 0; id < order.length; id++)
+			order[id] = id;
+
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return Long.compare(counts[column][b], counts[column][a]);
+			}
+		});
+
+		long total = 0;
+		for(long n : counts[0])
+			total += n;
+
+		out.printf(Locale.ROOT, "%d segments, %d states, %d items, %.1f items/state%n%n",
+				segments, states, total, states == 0 ? 0.0 : (double)total / states);
+
+		out.printf(Locale.ROOT, "%4s %6s", "rank", "items%");
+		for(String c : COLUMNS)
+			out.printf(Locale.ROOT, " %10s", c);
+		out.println("  rule");
+
+		for(int r = 0; r < order.length && (top < 0 || r < top); r++)
+		{
+			int id = order[r];
+
+			out.printf(Locale.ROOT, "%4d %6.2f", r+1,
+					total == 0 ? 0.0 : 100.0 * counts[0][id] / total);
+			for(int c = 0; c < COLUMNS.length; c++)
+				out.printf(Locale.ROOT, " %10d", counts[c][id]);
+			out.println("  " + id + ": " + rules[id]);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String sort = "items";
+		int top = -1;
+
+		Chunk npc = new Chunk();
+		Chunk.Backend backend = Chunk.Backend.EARLEY;
+		List<String> files = new ArrayList<String>();
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--backend"))
+				backend = Chunk.backendOption(args[++i]);
+			else if(args[i].equals("--sort"))
+				sort = args[++i];
+			else if(args[i].equals("--beam"))
+				npc.setBeamWidth(Integer.parseInt(args[++i]));
+			else if(args[i].equals("--top"))
+				top = Integer.parseInt(args[++i]);
+			else
+				files.add(args[i]);
+		}
+
+		if(files.isEmpty())
+		{
+			System.err.println("Usage: RuleProfile [--backend earley|np_earley] [--beam K] " +
+					"[--sort column] [--top N] file...");
+			System.exit(1);
+		}
+
+		// After the options, since the profile belongs to the backend's parser
+		npc.setBackend(backend);
+
+		RuleProfile profile = new RuleProfile(npc);
+		npc.setProfile(profile);
+
+		for(String file : files)
+		{
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), "UTF-8"));
+			String line;
+
+			while((line = br.readLine()) != null)
+				npc.parse_input(new String[] {line});
+
+			br.close();
+		}
+
+		PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+		profile.report(out, sort, top);
+		out.printf(Locale.ROOT, "%n%d segments not parsed, they can't have an NP%n",
+				npc.skippedSegments());
+	}
+}
@@ -0,0 +1,173 @@
+package chunker;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import chunker.Chunk.TokenTypes;
+
+/**
+ * Decides how long sentences are cut up into segments before parsing.
+ *
+ * By default a Chunk cuts every sentence into blocks of 'maxTokens'
+ * words. With a policy set, the window is chosen per segment instead:
+ * it is grown one token at a time for as long as the estimated cost stays
+ * within the budget. Runs of nouns and prepositions are cheap and can be
+ * parsed in long windows, while conjunctions, commas and adjectives make
+ * the chart blow up and get short windows.
+ *
+ * The estimate is the window length plus, for every token, the length
+ * times its ambiguity weight. With a time budget the cost budget is also
+ * adjusted after each segment, down when a segment takes longer than the
+ * budget and slowly back up when segments are fast.
+ *
+ * A policy may be shared by Chunks on different threads.
+ */
+public class SegmentPolicy
+{
+	private int minWindow = 0;
+	private int maxWindow = 0;
+	private volatile double budget = 0;
+	private long nanosBudget = 0;
+
+	private AtomicLongArray chosen = null;
+
+	/**
+	 * @param minWindow never cut shorter than this, unless the sentence ends
+	 * @param maxWindow never cut longer than this
+	 * @param budget the estimated cost allowed per segment
+	 */
+	public SegmentPolicy(int minWindow, int maxWindow, double budget)
+	{
+		this.minWindow = Math.max(1, minWindow);
+		this.maxWindow = Math.max(this.minWindow, maxWindow);
+		this.budget = budget;
+
+		chosen = new AtomicLongArray(this.maxWindow + 1);
+	}
+
+	/**
+	 * Default windows of 8 to 50 tokens, with a budget that gives about 20
+	 * tokens for a sentence of average ambiguity
+	 */
+	public static SegmentPolicy adaptive()
+	{
+		return new SegmentPolicy(8, 50, 100);
+	}
+
+	/**
+	 * Also adjusts the cost budget so that segments take about 'nanos' to
+	 * parse
+	 */
+	public SegmentPolicy withTimeBudget(long nanos)
+	{
+		nanosBudget = nanos;
+		return this;
+	}
+
+	/**
+	 * How much a token of the given type adds to the ambiguity of a segment
+	 */
+	static int ambiguity(TokenTypes t)
+	{
+		if(t == TokenTypes.konj || t == TokenTypes.del_min)
+			return 2;
+		else if(t == TokenTypes.adj_sing || t == TokenTypes.adj_plur ||
+				t == TokenTypes.adj_sing_plur || t == TokenTypes.num)
+			return 1;
+		else
+			return 0;
+	}
+
+	static double cost(int length, int ambiguity)
+	{
+		return length + (double)length * ambiguity;
+	}
+
+	/**
+	 * Returns the length of the segment starting at types[from]
+	 */
+	int window(TokenTypes[] types, int from)
+	{
+		int left = types.length - from;
+		int n = 0, ambiguity = 0;
+		double b = budget;
+
+		while(n < Math.min(left, maxWindow))
+		{
+			int a = ambiguity + ambiguity(types[from + n]);
+
+			if(n >= minWindow && cost(n + 1, a) > b)
+				break;
+
+			ambiguity = a;
+			n++;
+		}
+
+		chosen.incrementAndGet(n);
+		return n;
+	}
+
+	/**
+	 * The longest window window() returns, it never looks further ahead
+	 */
+	int maxWindow()
+	{
+		return maxWindow;
+	}
+
+	/**
+	 * Called after a segment has been parsed
+	 */
+	void parsed(int length, long nanos)
+	{
+		if(nanosBudget <= 0 || length < minWindow)
+			return;
+
+		double b = budget;
+
+		if(nanos > nanosBudget)
+			b *= 0.9;
+		else if(nanos < nanosBudget / 2)
+			b *= 1.02;
+
+		// Keep it between what min and max windows of a plain sentence cost
+		budget = Math.max(cost(minWindow, 0), Math.min(b, cost(maxWindow, maxWindow)));
+	}
+
+	public double budget()
+	{
+		return budget;
+	}
+
+	/**
+	 * The number of times each window size has been chosen
+	 */
+	public long[] windowCounts()
+	{
+		long[] counts = new long[chosen.length()];
+
+		for(int i = 0; i < counts.length; i++)
+			counts[i] = chosen.get(i);
+
+		return counts;
+	}
+
+	public String report()
+	{
+		long[] counts = windowCounts();
+		long total = 0;
+
+		for(long c : counts)
+			total += c;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "window  segments  share (budget %.1f)%n", budget));
+
+		for(int i = 0; i < counts.length; i++)
+			if(counts[i] > 0)
+				sb.append(String.format(Locale.ROOT, "%6d  %8d  %5.1f%%%n", i, counts[i],
+						100.0 * counts[i] / total));
+
+		return sb.toString();
+	}
+}
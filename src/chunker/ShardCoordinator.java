@@ -0,0 +1,505 @@
+package chunker;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunks a corpus on several worker processes, on this machine or on
+ * others, coordinated over plain sockets.
+ *
+ * The coordinator cuts the files into shards of about --shard-kb at line
+ * boundaries and hands them out to the workers that connect to it, one at
+ * a time. A worker gets the lines of the shard, chunks them and sends the
+ * NPs back, which the coordinator prints in the order of the input. If a
+ * worker dies or doesn't answer within the timeout, its shard goes back
+ * to the front of the queue for the next worker, and a local worker is
+ * started again. A shard that fails on --max-attempts workers ends the
+ * run, since it is most likely the shard that kills them.
+ *
+ * Only shards within a window after the first one not yet printed are
+ * handed out, so the NPs waiting to be printed stay bounded when a slow
+ * shard holds the output up.
+ *
+ *   ShardCoordinator [--workers N] [--listen port] [--shard-kb KB]
+ *                    [--shard-timeout s] [--max-attempts N]
+ *                    [--backend earley|np_earley] file...
+ *   ShardCoordinator --worker host:port [--backend earley|np_earley]
+ *
+ * The coordinator starts N local workers, by default one per processor,
+ * which connect over the loopback interface. With --listen it also
+ * accepts workers on the given port of all interfaces, started elsewhere
+ * with --worker, and waits for them even if it has no local workers
+ * (--workers 0). The shards are sent over the socket, so remote workers
+ * don't need the files.
+ */
+public class ShardCoordinator
+{
+	private static final int HELLO = 0x4e505343;
+	private static final int QUIT = -1;
+
+	private static class Shard
+	{
+		private int id = 0;
+		private File file = null;
+		private long from = 0;
+		private long to = 0;
+		private int attempts = 0;
+
+		public Shard(int id, File file, long from, long to)
+		{
+			this.id = id;
+			this.file = file;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int listenPort = -1;
+	private long shardBytes = 4L << 20;
+	private int shardTimeoutMillis = 10 * 60 * 1000;
+	private int maxAttempts = 3;
+	private List<String> chunkArgs = new ArrayList<String>();
+
+	// Guarded by 'this'
+	private PriorityQueue<Shard> pending = new PriorityQueue<Shard>(16, new Comparator<Shard>()
+	{
+		public int compare(Shard a, Shard b)
+		{
+			return Integer.compare(a.id, b.id);
+		}
+	});
+	private Map<Integer,byte[]> done = new HashMap<Integer,byte[]>();
+	private int next = 0;
+	private int window = 0;
+	private int connected = 0;
+	private boolean finished = false;
+	private String failure = null;
+
+	private int reassigned = 0;
+	private int restarts = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		ShardCoordinator sc = new ShardCoordinator();
+		List<File> files = new ArrayList<File>();
+		String worker = null;
+
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("--worker"))
+				worker = args[++i];
+			else if(args[i].equals("--workers"))
+				sc.workers = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--listen"))
+				sc.listenPort = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--shard-kb"))
+				sc.shardBytes = Long.parseLong(args[++i]) << 10;
+			else if(args[i].equals("--shard-timeout"))
+				sc.shardTimeoutMillis = Integer.parseInt(args[++i]) * 1000;
+			else if(args[i].equals("--max-attempts"))
+				sc.maxAttempts = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--backend"))
+			{
+				// Checked here too, not only when the workers start
+				Chunk.backendOption(args[i+1]);
+				sc.chunkArgs.add(args[i]);
+				sc.chunkArgs.add(args[++i]);
+			}
+			else
+				files.add(new File(args[i]));
+		}
+
+		if(worker != null)
+		{
+			int colon = worker.lastIndexOf(':');
+			work(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1)),
+					sc.chunkArgs);
+			return;
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+		boolean ok = sc.run(files, out);
+		out.flush();
+
+		if(!ok)
+			System.exit(1);
+	}
+
+	/**
+	 * Chunks the files and prints their NPs to 'out', returns false if the
+	 * run failed
+	 */
+	public boolean run(List<File> files, OutputStream out) throws IOException, InterruptedException
+	{
+		long start = System.nanoTime();
+		int total = shard(files);
+		window = 4 * Math.max(workers, 2);
+
+		final ServerSocket server = listenPort >= 0 ?
+				new ServerSocket(listenPort) :
+				new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		Thread acceptor = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				accept(server);
+			}
+		}, "shard-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		List<Process> local = new ArrayList<Process>();
+		for(int w = 0; w < workers; w++)
+			local.add(startWorker(server.getLocalPort()));
+
+		int printed = 0;
+
+		try
+		{
+			while(printed < total)
+			{
+				byte[] nps;
+
+				synchronized(this)
+				{
+					while(!done.containsKey(next) && failure == null)
+					{
+						wait(1000);
+						restartDeadWorkers(local, server.getLocalPort());
+					}
+
+					if(failure != null)
+						break;
+
+					nps = done.remove(next);
+					next++;
+					notifyAll();
+				}
+
+				out.write(nps);
+				printed++;
+			}
+		}
+		finally
+		{
+			synchronized(this)
+			{
+				finished = true;
+				notifyAll();
+			}
+
+			for(Process p : local)
+			{
+				if(!p.waitFor(10, TimeUnit.SECONDS))
+					p.destroyForcibly();
+			}
+
+			server.close();
+		}
+
+		synchronized(this)
+		{
+			System.err.printf(Locale.ROOT, "%d shards, %d reassigned, %d workers restarted, %.1fs%n",
+					total, reassigned, restarts, (System.nanoTime() - start) / 1e9);
+
+			if(failure != null)
+			{
+				System.err.println(failure);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Cuts the files into shards that start and end at line boundaries,
+	 * returns the number of shards
+	 */
+	private int shard(List<File> files) throws IOException
+	{
+		int id = 0;
+
+		for(File file : files)
+		{
+			MappedCorpus corpus = new MappedCorpus(file);
+
+			try
+			{
+				for(long from = 0; from < corpus.size(); )
+				{
+					long to = corpus.nextLine(Math.min(corpus.size(), from + shardBytes) - 1);
+
+					synchronized(this)
+					{
+						pending.add(new Shard(id++, file, from, to));
+					}
+
+					from = to;
+				}
+			}
+			finally
+			{
+				corpus.close();
+			}
+		}
+
+		return id;
+	}
+
+	private Process startWorker(int port) throws IOException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardCoordinator.class.getName());
+		command.add("--worker");
+		command.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+		command.addAll(chunkArgs);
+
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+		return pb.start();
+	}
+
+	/**
+	 * Starts local workers again that have died while there is work
+	 * left, called with the lock held
+	 */
+	private void restartDeadWorkers(List<Process> local, int port) throws IOException
+	{
+		for(int w = 0; w < local.size(); w++)
+		{
+			if(local.get(w).isAlive() || pending.isEmpty())
+				continue;
+
+			if(restarts >= maxAttempts * local.size())
+			{
+				failure = "Local workers keep dying, giving up";
+				return;
+			}
+
+			local.set(w, startWorker(port));
+			restarts++;
+		}
+
+		if(listenPort < 0 && local.isEmpty() && connected == 0)
+			failure = "No workers";
+	}
+
+	private void accept(ServerSocket server)
+	{
+		while(!server.isClosed())
+		{
+			try
+			{
+				final Socket socket = server.accept();
+
+				Thread handler = new Thread(new Runnable()
+				{
+					public void run()
+					{
+						serve(socket);
+					}
+				}, "shard-worker-" + socket.getRemoteSocketAddress());
+				handler.setDaemon(true);
+				handler.start();
+			}
+			catch(IOException e)
+			{
+				// Closed at the end of the run
+			}
+		}
+	}
+
+	/**
+	 * Hands shards to one worker until there are none left or it fails
+	 */
+	private void serve(Socket socket)
+	{
+		Shard shard = null;
+
+		try
+		{
+			socket.setSoTimeout(shardTimeoutMillis);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			if(in.readInt() != HELLO)
+				return;
+
+			synchronized(this)
+			{
+				connected++;
+			}
+
+			while((shard = take()) != null)
+			{
+				byte[] lines = read(shard);
+
+				out.writeInt(shard.id);
+				out.writeInt(lines.length);
+				out.write(lines);
+				out.flush();
+
+				if(in.readInt() != shard.id)
+					throw new IOException("Answer to the wrong shard");
+
+				byte[] nps = new byte[in.readInt()];
+				in.readFully(nps);
+
+				complete(shard, nps);
+				shard = null;
+			}
+
+			out.writeInt(QUIT);
+			out.flush();
+		}
+		catch(IOException e)
+		{
+			if(shard != null)
+				failed(shard, socket.getRemoteSocketAddress() + ": " + e);
+		}
+		catch(InterruptedException e)
+		{
+			if(shard != null)
+				failed(shard, "interrupted");
+		}
+		finally
+		{
+			synchronized(this)
+			{
+				if(connected > 0)
+					connected--;
+				notifyAll();
+			}
+
+			try
+			{
+				socket.close();
+			}
+			catch(IOException e)
+			{
+			}
+		}
+	}
+
+	/**
+	 * The next shard to hand out, null when the run is over
+	 */
+	private synchronized Shard take() throws InterruptedException
+	{
+		while(true)
+		{
+			if(finished || failure != null)
+				return null;
+
+			Shard shard = pending.peek();
+			if(shard != null && shard.id < next + window)
+				return pending.poll();
+
+			wait();
+		}
+	}
+
+	private synchronized void complete(Shard shard, byte[] nps)
+	{
+		done.put(shard.id, nps);
+		notifyAll();
+	}
+
+	private synchronized void failed(Shard shard, String why)
+	{
+		System.err.println("Shard " + shard.id + " of " + shard.file + " failed: " + why);
+
+		if(++shard.attempts >= maxAttempts)
+			failure = "Shard " + shard.id + " of " + shard.file + " [" + shard.from + ", " +
+					shard.to + ") failed " + shard.attempts + " times, giving up";
+		else
+		{
+			pending.add(shard);
+			reassigned++;
+		}
+
+		notifyAll();
+	}
+
+	private static byte[] read(Shard shard) throws IOException
+	{
+		byte[] bytes = new byte[(int)(shard.to - shard.from)];
+		RandomAccessFile raf = new RandomAccessFile(shard.file, "r");
+
+		try
+		{
+			raf.seek(shard.from);
+			raf.readFully(bytes);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * The worker side: chunks the shards the coordinator at host:port sends
+	 * until it says to quit
+	 */
+	static void work(String host, int port, List<String> args) throws IOException
+	{
+		Chunk npc = new Chunk();
+
+		for(int i = 0; i < args.size(); i++)
+			if(args.get(i).equals("--backend"))
+				npc.setBackend(Chunk.backendOption(args.get(++i)));
+
+		Socket socket = new Socket(host, port);
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			out.writeInt(HELLO);
+			out.flush();
+
+			int id;
+			while((id = in.readInt()) != QUIT)
+			{
+				byte[] lines = new byte[in.readInt()];
+				in.readFully(lines);
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(lines.length);
+				final PrintStream nps = new PrintStream(bytes, false, "UTF-8");
+
+				// The same as Main does with a file
+				npc.parse_stream(new InputStreamReader(new ByteArrayInputStream(lines), "UTF-8"),
+						new Chunk.NPHandler()
+				{
+					public void handle(String np)
+					{
+						nps.println(np);
+					}
+				});
+				nps.flush();
+
+				out.writeInt(id);
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+				out.flush();
+			}
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+}
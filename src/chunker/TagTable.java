@@ -0,0 +1,205 @@
+package chunker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Translates tags from the tagger's tag set to the Parole style tags that
+ * the chunker's patterns expect.
+ *
+ * A tag is looked up in this order:
+ *   1. the explicit mappings, e.g. loaded from a 'source<TAB>target' file
+ *   2. the built-in SUC converter, if enabled
+ *   3. otherwise the tag is used as it is
+ *
+ * Every tag is only translated once, after that the result is cached, so
+ * the cost per token is a single hash lookup.
+ */
+public class TagTable
+{
+	private Map<String,String> mappings = new HashMap<String,String>();
+	private Map<String,String> cache = new HashMap<String,String>();
+	private boolean suc = false;
+
+	/**
+	 * A table which leaves all tags as they are
+	 */
+	public TagTable()
+	{
+	}
+
+	/**
+	 * A table which converts SUC tags, either space or '|' separated
+	 * ('NN UTR SIN IND NOM', 'NN|UTR|SIN|IND|NOM'), e.g. the XPOS column
+	 * of the Swedish UD treebanks
+	 */
+	public static TagTable suc()
+	{
+		TagTable t = new TagTable();
+		t.suc = true;
+		return t;
+	}
+
+	/**
+	 * Adds the mappings in a file with one 'source<TAB>target' pair per
+	 * line. Empty lines and lines starting with '#' are skipped.
+	 */
+	public TagTable load(File f) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(f), "UTF-8"));
+
+		try
+		{
+			String line;
+			int lineNr = 0;
+
+			while((line = br.readLine()) != null)
+			{
+				lineNr++;
+
+				if(line.trim().equals("") || line.startsWith("#"))
+					continue;
+
+				String[] cols = line.split("\t");
+				if(cols.length != 2)
+					throw new IOException(f + ":" + lineNr + ": expected 'source<TAB>target'");
+
+				put(cols[0].trim(), cols[1].trim());
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+
+		return this;
+	}
+
+	public void put(String source, String target)
+	{
+		mappings.put(source, target);
+		cache.clear();
+	}
+
+	public String translate(String tag)
+	{
+		String t = cache.get(tag);
+
+		if(t == null)
+		{
+			t = mappings.get(tag);
+
+			if(t == null && suc)
+				t = fromSUC(tag);
+
+			if(t == null)
+				t = tag;
+
+			cache.put(tag, t);
+		}
+
+		return t;
+	}
+
+	/**
+	 * Converts a SUC tag to the corresponding Parole tag, or null for
+	 * tags it doesn't know. Only the parts of the tags that the chunker's
+	 * patterns look at have to be right.
+	 */
+	static String fromSUC(String tag)
+	{
+		String[] f = tag.split("[ |.]+");
+		Set<String> feats = new HashSet<String>(Arrays.asList(f));
+		String pos = f[0];
+
+		String gender = feats.contains("UTR") ? "U" : feats.contains("NEU") ? "N" :
+				feats.contains("MAS") ? "M" : "0";
+		String number = feats.contains("SIN") ? "S" : feats.contains("PLU") ? "P" : "0";
+		String kase = feats.contains("GEN") ? "G" : "N";
+		String def = feats.contains("DEF") ? "D" : feats.contains("IND") ? "I" : "0";
+		String degree = feats.contains("KOM") ? "C" : feats.contains("SUV") ? "S" :
+				feats.contains("POS") ? "P" : "0";
+		boolean compound = feats.contains("SMS");
+
+		if(pos.equals("NN"))
+		{
+			if(compound)
+				return "NC" + gender + number + "0@0C";
+
+			return "NC" + gender + number + kase + "@" + def + (feats.contains("AN") ? "A" : "S");
+		}
+		else if(pos.equals("PM"))
+		{
+			if(compound)
+				return "NP000@0C";
+
+			return "NP00" + kase + "@0S";
+		}
+		else if(pos.equals("JJ"))
+			return "AQ" + degree + gender + number + kase + def + "S";
+		else if(pos.equals("PC"))
+			return (feats.contains("PRS") ? "AP0" : "AF0") + gender + number + kase + def + "S";
+		else if(pos.equals("DT"))
+			return "D" + (def.equals("0") ? "0" : def.equals("D") ? "F" : "I") + "@" + gender + number + "@S";
+		else if(pos.equals("HD"))
+			return "DH@" + gender + number + "@S";
+		else if(pos.equals("PN"))
+			return "PF@" + gender + number + "0@S";
+		else if(pos.equals("HP"))
+			return "PH@" + gender + number + "0@S";
+		else if(pos.equals("PS") || pos.equals("HS"))
+			return "PS@000@S";
+		else if(pos.equals("AB"))
+			return "RG" + degree + "S";
+		else if(pos.equals("HA"))
+			return "RH0S";
+		else if(pos.equals("RG"))
+			return "MC00N0S";
+		else if(pos.equals("RO"))
+			return "MO00N0S";
+		else if(pos.equals("PP"))
+			return "SPS";
+		else if(pos.equals("KN"))
+			return "CCS";
+		else if(pos.equals("SN"))
+			return "CSS";
+		else if(pos.equals("IE"))
+			return "CIS";
+		else if(pos.equals("PL"))
+			return "QS";
+		else if(pos.equals("IN"))
+			return "I";
+		else if(pos.equals("UO"))
+			return "XF";
+		else if(pos.equals("MAD"))
+			return "FE";
+		else if(pos.equals("MID"))
+			return "FI";
+		else if(pos.equals("PAD"))
+			return "FP";
+		else if(pos.equals("VB"))
+		{
+			if(compound)
+				return "V@000C";
+
+			String voice = feats.contains("SFO") ? "S" : "A";
+
+			if(feats.contains("IMP"))
+				return "V@M0" + voice + "S";
+			if(feats.contains("INF"))
+				return "V@N0" + voice + "S";
+			if(feats.contains("SUP"))
+				return "V@IU" + voice + "S";
+
+			String tense = feats.contains("PRT") ? "I" : "P";
+
+			if(feats.contains("KON"))
+				return "V@S" + tense + voice + "S";
+
+			return "V@I" + tense + voice + "S";
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,106 @@
+package chunker;
+
+import java.io.*;
+
+/**
+ * Reads the space separated 'word/tag' strings of each line of a Reader
+ * one at a time, so that a line never has to be held in memory as a whole.
+ *
+ * The strings are the same as those of line.split(" "), with the lines
+ * ended as by BufferedReader.readLine(): empty strings between two spaces
+ * are kept, those at the end of the line are dropped.
+ */
+class TokenReader
+{
+	private Reader in = null;
+	// The next char of the line
+	private int c = 0;
+	private boolean inLine = false;
+
+	// The next string that isn't empty and the number of empty strings
+	// before it, which are only returned once it is known they aren't at
+	// the end of the line
+	private String word = null;
+	private int empty = 0;
+
+	private StringBuilder sb = new StringBuilder();
+
+	public TokenReader(Reader in)
+	{
+		this.in = in instanceof BufferedReader ? in : new BufferedReader(in);
+	}
+
+	/**
+	 * Moves to the next line, returns false at the end of the input
+	 */
+	public boolean nextLine() throws IOException
+	{
+		// Skip what is left of the current line
+		while(next() != null)
+			;
+
+		c = in.read();
+		if(c < 0)
+			return false;
+
+		inLine = true;
+		return true;
+	}
+
+	/**
+	 * The next string of the line, null at the end of the line
+	 */
+	public String next() throws IOException
+	{
+		while(word == null && inLine)
+		{
+			sb.setLength(0);
+
+			while(c >= 0 && c != ' ' && c != '\n' && c != '\r')
+			{
+				sb.append((char)c);
+				c = in.read();
+			}
+
+			if(sb.length() > 0)
+				word = sb.toString();
+
+			if(c == ' ')
+			{
+				c = in.read();
+
+				if(word == null)
+					empty++;
+			}
+			else
+			{
+				// The end of the line, skip the '\n' of a "\r\n"
+				if(c == '\r')
+				{
+					in.mark(1);
+					if(in.read() != '\n')
+						in.reset();
+				}
+
+				inLine = false;
+			}
+		}
+
+		if(word == null)
+		{
+			empty = 0;
+			return null;
+		}
+
+		if(empty > 0)
+		{
+			empty--;
+			return "";
+		}
+
+		String w = word;
+		word = null;
+
+		return w;
+	}
+}
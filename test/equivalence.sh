@@ -0,0 +1,34 @@
+#!/bin/sh
+# Checks that engines, by default chunk and np_earley, give the same NPs
+# as ReferenceChunk on the sample, test/sample.txt, and on sentences
+# generated from it, see EquivalenceCheck. Fails if any sentence differs,
+# so run it before merging changes to the parser.
+#
+# The reference's choice between equally good parses depends on identity
+# hash codes, which -XX:hashCode=2 makes the same in every run.
+#
+# The sample was made with
+#
+#   java chunker.CorpusGenerator --sentences 1000 --seed 5 --noise 0.05
+#
+#   test/equivalence.sh [engine...]
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf build/classes
+mkdir -p build/classes
+
+javac -encoding UTF-8 -d build/classes $(find src -name '*.java')
+
+if [ $# -eq 0 ]
+then
+	set -- chunk np_earley
+fi
+
+for engine in "$@"
+do
+	echo "$engine:"
+	java -XX:+UnlockExperimentalVMOptions -XX:hashCode=2 -cp build/classes \
+		chunker.EquivalenceCheck --engine "$engine" --generate 500 --max-diffs 20 \
+		test/sample.txt
+done